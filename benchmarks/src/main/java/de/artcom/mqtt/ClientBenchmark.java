@@ -0,0 +1,143 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Client hot paths against a stand-in paho client, publishing only serializes and hands off
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+    public static class Reading {
+        private final String id;
+        private final double value;
+        private final long timestamp;
+
+        @JsonCreator
+        public Reading(@JsonProperty("id") String id, @JsonProperty("value") double value, @JsonProperty("timestamp") long timestamp) {
+            this.id = id;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    static class ReadingCallback extends MessageCallback<Reading> {
+        private final Blackhole blackhole;
+
+        ReadingCallback(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onMessage(String topic, Reading payload, MqttMessage message) {
+            blackhole.consume(payload);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Publish {
+        private StandInAsyncClient standIn;
+        private Client client;
+        private Reading reading;
+
+        @Setup
+        public void setup() {
+            standIn = new StandInAsyncClient(0, 0);
+            client = new Client(standIn.create(), new NoOpConnectionCallback(), 2, true);
+            reading = new Reading("sensor-42", 21.5, 1519639220000L);
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            standIn.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FanOut {
+        @Param({"1", "10", "100"})
+        public int callbacks;
+
+        @Param({"false", "true"})
+        public boolean sharedDecoding;
+
+        // run with -prof gc to check that recording metrics does not allocate
+        @Param({"false", "true"})
+        public boolean metrics;
+
+        private StandInAsyncClient standIn;
+        private Client client;
+        private MqttMessage message;
+
+        @Setup
+        public void setup(Blackhole blackhole) throws MqttException, JsonProcessingException {
+            standIn = new StandInAsyncClient(0, 0);
+            client = new Client(standIn.create(), new NoOpConnectionCallback(), 2, true);
+            client.setSharedPayloadDecoding(sharedDecoding);
+            if (metrics) {
+                client.setMetrics(new CountingMetrics(), "sensors/#");
+            }
+
+            for (int i = 0; i < callbacks; i++) {
+                client.subscribe(i % 2 == 0 ? "sensors/+" : "sensors/#", new ReadingCallback(blackhole));
+            }
+
+            message = new MqttMessage(new PayloadWriter(PayloadWriter.newMapper(Codec.JSON.newFactory()))
+                    .write(new Reading("sensor-42", 21.5, 1519639220000L)));
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            standIn.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void publishObject(Publish state) throws MqttException, JsonProcessingException {
+        state.client.publish("sensors/42", state.reading, 1, false, null);
+    }
+
+    @Benchmark
+    public void messageArrivedFanOut(FanOut state) throws Exception {
+        state.client.messageArrived("sensors/42", state.message);
+    }
+
+    private static class CountingMetrics extends ClientMetrics {
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong callbackNanos = new AtomicLong();
+
+        @Override
+        public void messageReceived(String topicFilter, int payloadBytes) {
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void callbackCompleted(IMessageCallback callback, long latencyNanos) {
+            callbackNanos.addAndGet(latencyNanos);
+        }
+    }
+
+    private static class NoOpConnectionCallback implements ConnectionCallback {
+        @Override
+        public void onConnect() {
+        }
+
+        @Override
+        public void onReconnect() {
+        }
+
+        @Override
+        public void onDisconnect(Throwable cause) {
+        }
+    }
+}
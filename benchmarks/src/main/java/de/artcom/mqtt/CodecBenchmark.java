@@ -0,0 +1,83 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// the encoded size of each payload is printed once per trial
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    public static class Reading {
+        private final String id;
+        private final double value;
+        private final long timestamp;
+
+        @JsonCreator
+        public Reading(@JsonProperty("id") String id, @JsonProperty("value") double value, @JsonProperty("timestamp") long timestamp) {
+            this.id = id;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public static class Batch {
+        private final String source;
+        private final List<Reading> readings;
+
+        @JsonCreator
+        public Batch(@JsonProperty("source") String source, @JsonProperty("readings") List<Reading> readings) {
+            this.source = source;
+            this.readings = readings;
+        }
+    }
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    public String codecName;
+
+    // a single reading or a telemetry batch
+    @Param({"1", "64"})
+    public int readings;
+
+    private PayloadWriter writer;
+    private PayloadReader reader;
+    private Object payload;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        Codec codec = (Codec) Codec.class.getField(codecName).get(null);
+        writer = new PayloadWriter(PayloadWriter.newMapper(codec.newFactory()));
+
+        List<Reading> list = new ArrayList<>();
+        for (int i = 0; i < readings; i++) {
+            list.add(new Reading("sensor-" + i, 21.5 + i, 1519639220000L + i));
+        }
+
+        payload = readings == 1 ? list.get(0) : new Batch("gateway-7", list);
+        reader = codec.readerFor(payload.getClass());
+        encoded = writer.write(payload);
+
+        System.out.println(codec + " payload with " + readings + " readings: " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() throws JsonProcessingException {
+        return writer.write(payload);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        return reader.read(encoded);
+    }
+}
@@ -0,0 +1,250 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives real clients through the {@link LoopbackBroker} and reports end-to-end latency from
+ * publish to subscriber callback, and delivered throughput, per subscriber count and message size.
+ * The publisher sends at a fixed rate so that latencies are not dominated by its own backlog.
+ *
+ * <pre>
+ * ./gradlew :benchmarks:loadGenerator -Pargs='--subscribers 1,10,100 --sizes 64,1024 --qos 1'
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final String TOPIC = "load/test";
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    private int[] subscriberCounts = {1, 10, 100};
+    private int[] sizes = {64, 1024, 16384};
+    private int[] qosLevels = {0, 1, 2};
+    private int messages = 5000;
+    private int warmupMessages = 1000;
+
+    // messages per second, 0 publishes as fast as the publish window allows and the latency then
+    // includes the time spent waiting in it
+    private int rate = 1000;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+
+        // the clients' connect schedulers are not daemon threads
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--subscribers":
+                    subscriberCounts = parseList(value);
+                    break;
+                case "--sizes":
+                    sizes = parseList(value);
+                    break;
+                case "--qos":
+                    qosLevels = parseList(value);
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    warmupMessages = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.println(String.format("%4s %11s %8s %10s %12s %10s %10s %10s",
+                "qos", "subscribers", "size", "messages", "deliveries/s", "p50 us", "p99 us", "p999 us"));
+
+        for (int qos : qosLevels) {
+            for (int subscribers : subscriberCounts) {
+                for (int size : sizes) {
+                    Result result;
+                    try {
+                        result = runScenario(qos, subscribers, size);
+                    } catch (IllegalStateException e) {
+                        // an overloaded scenario should not hide the remaining ones
+                        System.out.println(String.format("%4d %11d %8d %10d %s", qos, subscribers, size, messages, e.getMessage()));
+                        continue;
+                    }
+
+                    System.out.println(String.format("%4d %11d %8d %10d %12.0f %10.1f %10.1f %10.1f",
+                            qos, subscribers, size, messages, result.throughput,
+                            result.percentile(0.5), result.percentile(0.99), result.percentile(0.999)));
+                }
+            }
+        }
+    }
+
+    private Result runScenario(int qos, int subscriberCount, int size) throws Exception {
+        LoopbackBroker broker = new LoopbackBroker().start();
+        List<Client> clients = new ArrayList<>();
+
+        try {
+            LatencyRecorder recorder = new LatencyRecorder();
+            for (int i = 0; i < subscriberCount; i++) {
+                Client subscriber = connect(broker, "subscriber" + i);
+                subscriber.subscribe(TOPIC, qos, recorder);
+                clients.add(subscriber);
+            }
+
+            Client publisher = connect(broker, "publisher");
+            clients.add(publisher);
+            broker.awaitSubscriptions(subscriberCount, TIMEOUT_MILLIS);
+
+            recorder.reset(warmupMessages * subscriberCount);
+            publish(publisher, qos, size, warmupMessages);
+            recorder.await();
+
+            recorder.reset(messages * subscriberCount);
+            long start = System.nanoTime();
+            publish(publisher, qos, size, messages);
+            recorder.await();
+            long elapsed = System.nanoTime() - start;
+
+            return new Result(recorder.latencies(), recorder.count() * 1e9 / elapsed);
+        } finally {
+            for (Client client : clients) {
+                try {
+                    client.disconnect();
+                } catch (MqttException e) {
+                    // the broker is going away as well
+                }
+            }
+
+            broker.close();
+        }
+    }
+
+    private Client connect(LoopbackBroker broker, String deviceId) throws MqttException, InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        Client client = new Client(broker.getUri(), ClientId.generate("load", deviceId), new ConnectionCallback() {
+            @Override
+            public void onConnect() {
+                connected.countDown();
+            }
+
+            @Override
+            public void onReconnect() {
+            }
+
+            @Override
+            public void onDisconnect(Throwable cause) {
+            }
+        }, 60, true, new MemoryPersistence());
+
+        client.connect();
+        if (!connected.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Could not connect " + deviceId);
+        }
+
+        return client;
+    }
+
+    private void publish(Client publisher, int qos, int size, int count) {
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long next = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            if (interval > 0) {
+                next += interval;
+                while (System.nanoTime() < next) {
+                    LockSupport.parkNanos(next - System.nanoTime());
+                }
+            }
+
+            // the publish window keeps the in-flight messages below paho's limit
+            ByteBuffer payload = ByteBuffer.allocate(Math.max(size, 8));
+            payload.putLong(0, System.nanoTime());
+            publisher.publishAsync(TOPIC, payload.array(), qos, false);
+        }
+    }
+
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+
+        return result;
+    }
+
+    private static class LatencyRecorder implements IMessageCallback {
+        private volatile long[] latencies = new long[0];
+        private volatile CountDownLatch done = new CountDownLatch(0);
+        private final AtomicInteger index = new AtomicInteger();
+
+        void reset(int expected) {
+            latencies = new long[expected];
+            index.set(0);
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onRawMessage(String topic, MqttMessage message) {
+            long latency = System.nanoTime() - ByteBuffer.wrap(message.getPayload()).getLong(0);
+            int i = index.getAndIncrement();
+            if (i < latencies.length) {
+                latencies[i] = latency;
+            }
+
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            if (!done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Only " + index.get() + " of " + latencies.length + " messages arrived");
+            }
+        }
+
+        int count() {
+            return Math.min(index.get(), latencies.length);
+        }
+
+        long[] latencies() {
+            return Arrays.copyOf(latencies, count());
+        }
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final double throughput;
+
+        Result(long[] latencies, double throughput) {
+            this.latencies = latencies;
+            this.throughput = throughput;
+            Arrays.sort(latencies);
+        }
+
+        double percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+
+            int i = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(i, 0)] / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package de.artcom.mqtt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A minimal in-process MQTT 3.1.1 broker on localhost for load tests without an external broker.
+ * It supports CONNECT, SUBSCRIBE, UNSUBSCRIBE, PUBLISH with QoS 0, 1 and 2, PINGREQ and
+ * DISCONNECT, and delivers to {@code $share/<group>/<filter>} subscribers in turn. Sessions are
+ * always clean and there are no retained messages, no wills and no retransmissions.
+ */
+public class LoopbackBroker implements Runnable {
+    private static final Logger LOG = Logger.getLogger(LoopbackBroker.class.getSimpleName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int CONNECT = 1;
+    private static final int CONNACK = 2;
+    private static final int PUBLISH = 3;
+    private static final int PUBACK = 4;
+    private static final int PUBREC = 5;
+    private static final int PUBREL = 6;
+    private static final int PUBCOMP = 7;
+    private static final int SUBSCRIBE = 8;
+    private static final int SUBACK = 9;
+    private static final int UNSUBSCRIBE = 10;
+    private static final int UNSUBACK = 11;
+    private static final int PINGREQ = 12;
+    private static final int PINGRESP = 13;
+    private static final int DISCONNECT = 14;
+
+    private final ServerSocket serverSocket;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, AtomicInteger> shareCounters = new ConcurrentHashMap<>();
+    private volatile boolean isClosed;
+
+    public LoopbackBroker() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public LoopbackBroker start() {
+        Thread thread = new Thread(this, "loopback-broker");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    public String getUri() {
+        return "tcp://localhost:" + serverSocket.getLocalPort();
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    public void awaitSubscriptions(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (subscriptions.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + subscriptions.size() + " of " + count + " subscriptions arrived");
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    public void close() throws IOException {
+        isClosed = true;
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!isClosed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+
+                Thread thread = new Thread(connection, "loopback-broker-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!isClosed) {
+                    LOG.severe("Error: " + e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    private void route(String topic, int qos, byte[] payload) throws IOException {
+        List<Subscription> matching = new ArrayList<>();
+        Map<String, List<Subscription>> shareGroups = new HashMap<>();
+        for (Subscription subscription : subscriptions) {
+            if (!SubscriptionHandler.matches(topic, subscription.filter)) {
+                continue;
+            }
+
+            if (SharedSubscription.isShared(subscription.filter)) {
+                List<Subscription> members = shareGroups.get(subscription.filter);
+                if (members == null) {
+                    members = new ArrayList<>();
+                    shareGroups.put(subscription.filter, members);
+                }
+
+                members.add(subscription);
+            } else {
+                matching.add(subscription);
+            }
+        }
+
+        // each share group delivers to one of its members in turn
+        for (Map.Entry<String, List<Subscription>> group : shareGroups.entrySet()) {
+            List<Subscription> members = group.getValue();
+            matching.add(members.get((nextShareMember(group.getKey()) & Integer.MAX_VALUE) % members.size()));
+        }
+
+        // a client with overlapping subscriptions receives the message once, at the highest QoS
+        Map<Connection, Integer> receivers = new HashMap<>();
+        for (Subscription subscription : matching) {
+            Integer granted = receivers.get(subscription.connection);
+            if (granted == null || granted < subscription.qos) {
+                receivers.put(subscription.connection, subscription.qos);
+            }
+        }
+
+        for (Map.Entry<Connection, Integer> receiver : receivers.entrySet()) {
+            receiver.getKey().sendPublish(topic, Math.min(qos, receiver.getValue()), payload);
+        }
+    }
+
+    private int nextShareMember(String filter) {
+        AtomicInteger counter = shareCounters.get(filter);
+        if (counter == null) {
+            counter = new AtomicInteger();
+            AtomicInteger existing = shareCounters.putIfAbsent(filter, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+
+        return counter.getAndIncrement();
+    }
+
+    private static final class Subscription {
+        private final Connection connection;
+        private final String filter;
+        private final int qos;
+
+        private Subscription(Connection connection, String filter, int qos) {
+            this.connection = connection;
+            this.filter = filter;
+            this.qos = qos;
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private int nextPacketId;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int header = in.read();
+                    if (header < 0) {
+                        break;
+                    }
+
+                    byte[] body = new byte[readRemainingLength()];
+                    in.readFully(body);
+
+                    if (!handle(header >> 4, header & 0x0f, body)) {
+                        break;
+                    }
+                }
+            } catch (EOFException | SocketException e) {
+                // the client went away
+            } catch (IOException e) {
+                LOG.severe("Error: " + e.getLocalizedMessage());
+            } finally {
+                close();
+            }
+        }
+
+        // returns false once the client disconnected
+        private boolean handle(int type, int flags, byte[] body) throws IOException {
+            switch (type) {
+                case CONNECT:
+                    send(CONNACK, 0, new byte[]{0, 0});
+                    return true;
+                case PUBLISH:
+                    handlePublish(flags, body);
+                    return true;
+                case PUBREL:
+                    send(PUBCOMP, 0, packetId(body, 0));
+                    return true;
+                case PUBREC:
+                    send(PUBREL, 2, packetId(body, 0));
+                    return true;
+                case PUBACK:
+                case PUBCOMP:
+                    return true;
+                case SUBSCRIBE:
+                    handleSubscribe(body);
+                    return true;
+                case UNSUBSCRIBE:
+                    handleUnsubscribe(body);
+                    return true;
+                case PINGREQ:
+                    send(PINGRESP, 0, new byte[0]);
+                    return true;
+                case DISCONNECT:
+                    return false;
+                default:
+                    throw new IOException("Unsupported packet type " + type);
+            }
+        }
+
+        private void handlePublish(int flags, byte[] body) throws IOException {
+            int qos = (flags >> 1) & 0x03;
+            int topicLength = readShort(body, 0);
+            String topic = new String(body, 2, topicLength, UTF_8);
+            int offset = 2 + topicLength;
+
+            byte[] packetId = null;
+            if (qos > 0) {
+                packetId = packetId(body, offset);
+                offset += 2;
+            }
+
+            byte[] payload = new byte[body.length - offset];
+            System.arraycopy(body, offset, payload, 0, payload.length);
+
+            // QoS 2 messages are delivered on receipt, the loopback never loses the PUBREL
+            route(topic, qos, payload);
+
+            if (qos == 1) {
+                send(PUBACK, 0, packetId);
+            } else if (qos == 2) {
+                send(PUBREC, 0, packetId);
+            }
+        }
+
+        private void handleSubscribe(byte[] body) throws IOException {
+            List<Integer> granted = new ArrayList<>();
+            int offset = 2;
+            while (offset < body.length) {
+                int length = readShort(body, offset);
+                String filter = new String(body, offset + 2, length, UTF_8);
+                int qos = Math.min(body[offset + 2 + length] & 0x03, 2);
+                offset += 3 + length;
+
+                removeSubscription(filter);
+                subscriptions.add(new Subscription(this, filter, qos));
+                granted.add(qos);
+            }
+
+            byte[] ack = new byte[2 + granted.size()];
+            ack[0] = body[0];
+            ack[1] = body[1];
+            for (int i = 0; i < granted.size(); i++) {
+                ack[2 + i] = (byte) (int) granted.get(i);
+            }
+
+            send(SUBACK, 0, ack);
+        }
+
+        private void handleUnsubscribe(byte[] body) throws IOException {
+            int offset = 2;
+            while (offset < body.length) {
+                int length = readShort(body, offset);
+                removeSubscription(new String(body, offset + 2, length, UTF_8));
+                offset += 2 + length;
+            }
+
+            send(UNSUBACK, 0, packetId(body, 0));
+        }
+
+        private void removeSubscription(String filter) {
+            for (Subscription subscription : subscriptions) {
+                if (subscription.connection == this && subscription.filter.equals(filter)) {
+                    subscriptions.remove(subscription);
+                }
+            }
+        }
+
+        void sendPublish(String topic, int qos, byte[] payload) throws IOException {
+            byte[] topicBytes = topic.getBytes(UTF_8);
+            int length = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+
+            synchronized (this) {
+                writeFixedHeader(PUBLISH, qos << 1, length);
+                writeShort(topicBytes.length);
+                out.write(topicBytes);
+                if (qos > 0) {
+                    nextPacketId = nextPacketId % 0xffff + 1;
+                    writeShort(nextPacketId);
+                }
+                out.write(payload);
+                out.flush();
+            }
+        }
+
+        synchronized private void send(int type, int flags, byte[] body) throws IOException {
+            writeFixedHeader(type, flags, body.length);
+            out.write(body);
+            out.flush();
+        }
+
+        private void writeFixedHeader(int type, int flags, int remainingLength) throws IOException {
+            out.write((type << 4) | flags);
+            do {
+                int digit = remainingLength % 128;
+                remainingLength /= 128;
+                out.write(remainingLength > 0 ? digit | 0x80 : digit);
+            } while (remainingLength > 0);
+        }
+
+        private void writeShort(int value) throws IOException {
+            out.write(value >> 8);
+            out.write(value & 0xff);
+        }
+
+        private int readRemainingLength() throws IOException {
+            int value = 0;
+            int multiplier = 1;
+            int digit;
+            do {
+                digit = in.readUnsignedByte();
+                value += (digit & 0x7f) * multiplier;
+                multiplier *= 128;
+            } while ((digit & 0x80) != 0);
+
+            return value;
+        }
+
+        void close() {
+            connections.remove(this);
+            for (Subscription subscription : subscriptions) {
+                if (subscription.connection == this) {
+                    subscriptions.remove(subscription);
+                }
+            }
+
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.severe("Error: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private static byte[] packetId(byte[] bytes, int offset) {
+        return new byte[]{bytes[offset], bytes[offset + 1]};
+    }
+}
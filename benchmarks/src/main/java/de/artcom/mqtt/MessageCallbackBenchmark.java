@@ -0,0 +1,101 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCallbackBenchmark {
+    public static class Payload {
+        public final String id;
+        public final double value;
+        public final long timestamp;
+
+        @JsonCreator
+        public Payload(@JsonProperty("id") String id, @JsonProperty("value") double value, @JsonProperty("timestamp") long timestamp) {
+            this.id = id;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    static class CachedCallback extends MessageCallback<Payload> {
+        Blackhole blackhole;
+
+        @Override
+        public void onMessage(String topic, Payload payload, MqttMessage message) {
+            blackhole.consume(payload);
+        }
+    }
+
+    // mirrors the per-message reflection and type construction MessageCallback did before readers were cached
+    static class ReflectiveCallback extends MessageCallback<Payload> {
+        private static final ObjectMapper objectMapper = new ObjectMapper();
+
+        Blackhole blackhole;
+
+        ReflectiveCallback() {
+            objectMapper.setVisibility(objectMapper.getSerializationConfig().getDefaultVisibilityChecker()
+                    .withFieldVisibility(JsonAutoDetect.Visibility.NONE)
+                    .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                    .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                    .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
+                    .withCreatorVisibility(JsonAutoDetect.Visibility.PUBLIC_ONLY));
+        }
+
+        @Override
+        public void onRawMessage(String topic, MqttMessage message) {
+            try {
+                Type arg = ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+                Payload payload = objectMapper.readValue(message.getPayload(), objectMapper.getTypeFactory().constructType(arg));
+                onMessage(topic, payload, message);
+            } catch (IOException error) {
+                onParseError(error, message);
+            }
+        }
+
+        @Override
+        public void onMessage(String topic, Payload payload, MqttMessage message) {
+            blackhole.consume(payload);
+        }
+    }
+
+    private MqttMessage message;
+    private CachedCallback cached;
+    private ReflectiveCallback reflective;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        message = new MqttMessage(new ObjectMapper().writeValueAsBytes(new Payload("sensor-42", 21.5, 1519639220000L)));
+
+        cached = new CachedCallback();
+        cached.blackhole = blackhole;
+
+        reflective = new ReflectiveCallback();
+        reflective.blackhole = blackhole;
+    }
+
+    @Benchmark
+    public void cachedReader() {
+        cached.onRawMessage("sensors/42", message);
+    }
+
+    @Benchmark
+    public void reflectionPerMessage() {
+        reflective.onRawMessage("sensors/42", message);
+    }
+}
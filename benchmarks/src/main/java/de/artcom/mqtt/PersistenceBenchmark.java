@@ -0,0 +1,124 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// A QoS 1 publish as paho persists it: stored when sent, removed once acknowledged.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistenceBenchmark {
+    @Param({"memory", "file", "mapped"})
+    public String persistenceType;
+
+    @Param({"256"})
+    public int payloadSize;
+
+    // number of unacknowledged messages kept in the store
+    @Param({"10"})
+    public int inFlight;
+
+    private File directory;
+    private MqttClientPersistence persistence;
+    private MqttPersistable message;
+    private long sequence;
+
+    @Setup
+    public void setup() throws IOException, MqttPersistenceException {
+        directory = Files.createTempDirectory("persistence-benchmark").toFile();
+        switch (persistenceType) {
+            case "memory":
+                persistence = new MemoryPersistence();
+                break;
+            case "file":
+                persistence = new MqttDefaultFilePersistence(directory.getPath());
+                break;
+            default:
+                persistence = new MappedFilePersistence(directory.getPath());
+                break;
+        }
+
+        persistence.open("benchmark", "tcp://localhost:1883");
+        message = new Message(new byte[32], new byte[payloadSize]);
+        for (sequence = 0; sequence < inFlight; sequence++) {
+            persistence.put("s-" + sequence, message);
+        }
+    }
+
+    @Benchmark
+    public void putAndRemove() throws MqttPersistenceException {
+        persistence.put("s-" + sequence, message);
+        persistence.remove("s-" + (sequence - inFlight));
+        sequence++;
+    }
+
+    @TearDown
+    public void teardown() throws MqttPersistenceException {
+        persistence.clear();
+        persistence.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private static class Message implements MqttPersistable {
+        private final byte[] header;
+        private final byte[] payload;
+
+        Message(byte[] header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
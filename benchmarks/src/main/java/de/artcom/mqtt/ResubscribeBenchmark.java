@@ -0,0 +1,64 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Time from a reconnect until the stand-in broker has acknowledged every subscription.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class ResubscribeBenchmark {
+    // 1 behaves like sending one SUBSCRIBE per topic
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    @Param({"1000"})
+    public int topics;
+
+    @Param({"20000"})
+    public long packetCostNanos;
+
+    @Param({"1000"})
+    public long topicCostNanos;
+
+    private StandInAsyncClient broker;
+    private SubscriptionHandler handler;
+
+    @Setup
+    public void setup() throws Exception {
+        broker = new StandInAsyncClient(packetCostNanos, topicCostNanos);
+        handler = new SubscriptionHandler(broker.create());
+        handler.setBatchSize(batchSize);
+
+        IMessageCallback callback = new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {}
+        };
+
+        for (int i = 0; i < topics; i++) {
+            handler.subscribe("devices/" + i + "/state", callback);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        broker.reset();
+    }
+
+    @Benchmark
+    public int timeToResubscribed() throws Exception {
+        handler.syncSubscriptions();
+        broker.awaitAcknowledged(topics);
+        return broker.getPacketCount();
+    }
+
+    @TearDown
+    public void teardown() throws InterruptedException {
+        broker.shutdown();
+    }
+}
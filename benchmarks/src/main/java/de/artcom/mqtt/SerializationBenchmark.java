@@ -0,0 +1,79 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// run with -prof gc to compare the allocation rate per publish
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    static class Reading {
+        private final String id;
+        private final double value;
+        private final long timestamp;
+
+        Reading(String id, double value, long timestamp) {
+            this.id = id;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    static class Batch {
+        private final String source;
+        private final List<Reading> readings;
+
+        Batch(String source, List<Reading> readings) {
+            this.source = source;
+            this.readings = readings;
+        }
+    }
+
+    // a single reading or a batch of readings, serialized to about 60 bytes or 3.5 KB
+    @Param({"1", "64"})
+    public int readings;
+
+    private ObjectMapper objectMapper;
+    private PayloadWriter payloadWriter;
+    private Object payload;
+
+    @Setup
+    public void setup() {
+        // configured like Client's mapper
+        objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(objectMapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
+                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withCreatorVisibility(JsonAutoDetect.Visibility.NONE));
+        payloadWriter = new PayloadWriter(objectMapper);
+
+        List<Reading> list = new ArrayList<>();
+        for (int i = 0; i < readings; i++) {
+            list.add(new Reading("sensor-" + i, 21.5 + i, 1519639220000L + i));
+        }
+
+        payload = readings == 1 ? list.get(0) : new Batch("gateway-7", list);
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] payloadWriter() throws JsonProcessingException {
+        return payloadWriter.write(payload);
+    }
+}
@@ -0,0 +1,90 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A connected IMqttAsyncClient whose (un)subscriptions are acknowledged by a single simulated
+// broker thread. Every packet costs a fixed processing time plus a smaller cost per topic.
+class StandInAsyncClient implements InvocationHandler {
+    private final long packetCostNanos;
+    private final long topicCostNanos;
+    private final ExecutorService broker = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger packets = new AtomicInteger();
+    private final AtomicInteger acknowledgedTopics = new AtomicInteger();
+
+    StandInAsyncClient(long packetCostNanos, long topicCostNanos) {
+        this.packetCostNanos = packetCostNanos;
+        this.topicCostNanos = topicCostNanos;
+    }
+
+    IMqttAsyncClient create() {
+        return (IMqttAsyncClient) Proxy.newProxyInstance(
+                IMqttAsyncClient.class.getClassLoader(),
+                new Class<?>[]{IMqttAsyncClient.class},
+                this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "isConnected":
+                return true;
+            case "subscribe":
+            case "unsubscribe":
+                Object topics = args[0];
+                send(topics instanceof String[] ? ((String[]) topics).length : 1);
+                return null;
+            default:
+                if (method.getReturnType() == boolean.class) {
+                    return false;
+                }
+                return null;
+        }
+    }
+
+    private void send(final int topics) {
+        packets.incrementAndGet();
+        broker.execute(new Runnable() {
+            @Override
+            public void run() {
+                spin(packetCostNanos + topics * topicCostNanos);
+                acknowledgedTopics.addAndGet(topics);
+            }
+        });
+    }
+
+    void awaitAcknowledged(int topics) throws InterruptedException {
+        while (acknowledgedTopics.get() < topics) {
+            Thread.sleep(0, 100000);
+        }
+    }
+
+    void reset() {
+        packets.set(0);
+        acknowledgedTopics.set(0);
+    }
+
+    int getPacketCount() {
+        return packets.get();
+    }
+
+    void shutdown() throws InterruptedException {
+        broker.shutdown();
+        broker.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Thread.yield();
+        }
+    }
+}
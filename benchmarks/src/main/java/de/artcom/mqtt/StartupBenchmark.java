@@ -0,0 +1,113 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cold start in a fresh JVM per measurement: the first message delivered to a callback and the
+// first object published, with payload types unregistered, registered, or registered and warmed up
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+    public static class Status {
+        private final String deviceId;
+        private final String state;
+        private final double level;
+        private final List<String> tags;
+        private final long timestamp;
+
+        @JsonCreator
+        public Status(@JsonProperty("deviceId") String deviceId, @JsonProperty("state") String state,
+                      @JsonProperty("level") double level, @JsonProperty("tags") List<String> tags,
+                      @JsonProperty("timestamp") long timestamp) {
+            this.deviceId = deviceId;
+            this.state = state;
+            this.level = level;
+            this.tags = tags;
+            this.timestamp = timestamp;
+        }
+    }
+
+    static class StatusCallback extends MessageCallback<Status> {
+        private final Blackhole blackhole;
+
+        StatusCallback(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onMessage(String topic, Status payload, MqttMessage message) {
+            blackhole.consume(payload);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Startup {
+        @Param({"none", "register", "warmup"})
+        public String preparation;
+
+        private StandInAsyncClient standIn;
+        private Client client;
+        private MqttMessage message;
+        private Status status;
+
+        @Setup
+        public void setup(Blackhole blackhole) throws MqttException {
+            standIn = new StandInAsyncClient(0, 0);
+            client = new Client(standIn.create(), new NoOpConnectionCallback(), 2, true);
+
+            status = new Status("lamp-1", "on", 0.8, Arrays.asList("hall", "dimmable"), 1519639220000L);
+            if (preparation.equals("register")) {
+                client.registerPayloadType(Status.class);
+            } else if (preparation.equals("warmup")) {
+                client.registerPayloadType(Status.class, status, 1000);
+            }
+
+            client.subscribe("devices/+/status", new StatusCallback(blackhole));
+
+            // written by hand, so that nothing of the payload type is initialized in the unprepared case
+            message = new MqttMessage(("{\"deviceId\":\"lamp-2\",\"state\":\"off\",\"level\":0.0,"
+                    + "\"tags\":[\"porch\"],\"timestamp\":1519639221000}").getBytes());
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            standIn.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void firstMessageDispatched(Startup state) throws Exception {
+        state.client.messageArrived("devices/lamp-2/status", state.message);
+    }
+
+    @Benchmark
+    public void firstObjectPublished(Startup state) throws MqttException, JsonProcessingException {
+        state.client.publish("devices/lamp-1/status", state.status, 1, false, null);
+    }
+
+    private static class NoOpConnectionCallback implements ConnectionCallback {
+        @Override
+        public void onConnect() {
+        }
+
+        @Override
+        public void onReconnect() {
+        }
+
+        @Override
+        public void onDisconnect(Throwable cause) {
+        }
+    }
+}
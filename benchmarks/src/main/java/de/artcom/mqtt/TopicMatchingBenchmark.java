@@ -0,0 +1,105 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopicMatchingBenchmark {
+    private static final int TOPIC_COUNT = 4096;
+
+    @Param({"10", "1000", "10000"})
+    public int subscriptions;
+
+    // share of filters with a single-level (+) or multi-level (#) wildcard
+    @Param({"exact", "mixed", "wildcard"})
+    public String wildcards;
+
+    private SubscriptionHandler cachedHandler;
+    private SubscriptionHandler uncachedHandler;
+    private StandInAsyncClient standIn;
+
+    private String[] topics;
+    private String[] filters;
+    private int next;
+
+    @Setup
+    public void setup() throws MqttException {
+        Random random = new Random(42);
+        double wildcardShare = "exact".equals(wildcards) ? 0 : "mixed".equals(wildcards) ? 0.2 : 0.8;
+
+        filters = new String[subscriptions];
+        for (int i = 0; i < subscriptions; i++) {
+            String building = "building/" + (i % 50);
+            String floor = "floor/" + (i / 50 % 20);
+            String sensor = "sensor/" + (i / 1000);
+
+            if (random.nextDouble() >= wildcardShare) {
+                filters[i] = building + "/" + floor + "/" + sensor;
+            } else if (random.nextBoolean()) {
+                filters[i] = building + "/+/" + (i / 50 % 20) + "/" + sensor;
+            } else {
+                filters[i] = building + "/" + floor + "/#";
+            }
+        }
+
+        topics = new String[TOPIC_COUNT];
+        for (int i = 0; i < TOPIC_COUNT; i++) {
+            topics[i] = "building/" + random.nextInt(50) + "/floor/" + random.nextInt(20) + "/sensor/" + random.nextInt(10);
+        }
+
+        standIn = new StandInAsyncClient(0, 0);
+        cachedHandler = new SubscriptionHandler(standIn.create());
+        uncachedHandler = new SubscriptionHandler(standIn.create(), 0);
+
+        IMessageCallback callback = new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+            }
+        };
+
+        for (String filter : filters) {
+            cachedHandler.subscribe(filter, callback);
+            uncachedHandler.subscribe(filter, callback);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        standIn.shutdown();
+    }
+
+    private String nextTopic() {
+        next = (next + 1) & (TOPIC_COUNT - 1);
+        return topics[next];
+    }
+
+    // checks one topic against every filter, as the lookup did before the topic tree
+    @Benchmark
+    public void matchesAllFilters(Blackhole blackhole) {
+        String topic = nextTopic();
+        for (String filter : filters) {
+            blackhole.consume(SubscriptionHandler.matches(topic, filter));
+        }
+    }
+
+    @Benchmark
+    public List<IMessageCallback> getCallbacksCached() {
+        return cachedHandler.getCallbacks(nextTopic());
+    }
+
+    @Benchmark
+    public List<IMessageCallback> getCallbacksUncached() {
+        return uncachedHandler.getCallbacks(nextTopic());
+    }
+}
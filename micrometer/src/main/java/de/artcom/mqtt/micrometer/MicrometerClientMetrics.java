@@ -0,0 +1,139 @@
+package de.artcom.mqtt.micrometer;
+
+import de.artcom.mqtt.ClientMetrics;
+import de.artcom.mqtt.IMessageCallback;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes client metrics to a Micrometer registry. Meters are created once per topic filter and
+ * callback class, later measurements only look them up.
+ */
+public class MicrometerClientMetrics extends ClientMetrics {
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, FilterMeters> filterMeters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, Timer> callbackTimers = new ConcurrentHashMap<>();
+
+    private final Counter reconnects;
+    private final AtomicLong reconnectDelay;
+    private final AtomicInteger subscriptionCount;
+    private final Timer syncTimer;
+
+    public MicrometerClientMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        reconnects = registry.counter("mqtt.reconnects");
+        reconnectDelay = registry.gauge("mqtt.reconnect.delay", new AtomicLong());
+        subscriptionCount = registry.gauge("mqtt.subscriptions", new AtomicInteger());
+        syncTimer = registry.timer("mqtt.subscriptions.sync");
+    }
+
+    @Override
+    public void messageReceived(String topicFilter, int payloadBytes) {
+        FilterMeters meters = metersFor(topicFilter);
+        meters.received.increment();
+        meters.receivedBytes.increment(payloadBytes);
+    }
+
+    @Override
+    public void messagePublished(String topicFilter, int payloadBytes) {
+        FilterMeters meters = metersFor(topicFilter);
+        meters.published.increment();
+        meters.publishedBytes.increment(payloadBytes);
+    }
+
+    @Override
+    public void callbackCompleted(IMessageCallback callback, long latencyNanos) {
+        timerFor(callback).record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void parseError(String topicFilter) {
+        metersFor(topicFilter).parseErrors.increment();
+    }
+
+    @Override
+    public void messageFiltered(String topicFilter) {
+        metersFor(topicFilter).filtered.increment();
+    }
+
+    @Override
+    public void publishAcknowledged(String topicFilter, long latencyNanos) {
+        metersFor(topicFilter).ackLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void reconnectScheduled(int attempt, long delayMillis) {
+        reconnects.increment();
+        reconnectDelay.set(delayMillis);
+    }
+
+    @Override
+    public void subscriptionCountChanged(int count) {
+        subscriptionCount.set(count);
+    }
+
+    @Override
+    public void subscriptionsSynced(int count, long durationNanos) {
+        syncTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private FilterMeters metersFor(String topicFilter) {
+        FilterMeters meters = filterMeters.get(topicFilter);
+        if (meters == null) {
+            meters = new FilterMeters(registry, topicFilter);
+            FilterMeters existing = filterMeters.putIfAbsent(topicFilter, meters);
+            if (existing != null) {
+                meters = existing;
+            }
+        }
+
+        return meters;
+    }
+
+    private Timer timerFor(IMessageCallback callback) {
+        // report conflating and other wrappers by the class of the user's callback
+        callback = subscribedCallback(callback);
+
+        Timer timer = callbackTimers.get(callback.getClass());
+        if (timer == null) {
+            timer = Timer.builder("mqtt.callback.latency")
+                    .tag("callback", callback.getClass().getName())
+                    .publishPercentileHistogram()
+                    .register(registry);
+            callbackTimers.putIfAbsent(callback.getClass(), timer);
+        }
+
+        return timer;
+    }
+
+    private static final class FilterMeters {
+        private final Counter received;
+        private final Counter receivedBytes;
+        private final Counter published;
+        private final Counter publishedBytes;
+        private final Counter parseErrors;
+        private final Counter filtered;
+        private final Timer ackLatency;
+
+        private FilterMeters(MeterRegistry registry, String topicFilter) {
+            received = registry.counter("mqtt.messages.received", "filter", topicFilter);
+            receivedBytes = registry.counter("mqtt.messages.received.bytes", "filter", topicFilter);
+            published = registry.counter("mqtt.messages.published", "filter", topicFilter);
+            publishedBytes = registry.counter("mqtt.messages.published.bytes", "filter", topicFilter);
+            parseErrors = registry.counter("mqtt.parse.errors", "filter", topicFilter);
+            filtered = registry.counter("mqtt.messages.filtered", "filter", topicFilter);
+            ackLatency = Timer.builder("mqtt.publish.ack.latency")
+                    .tag("filter", topicFilter)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.artcom.mqtt.micrometer;
+
+import de.artcom.mqtt.IMessageCallback;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class MicrometerClientMetricsTest {
+    private SimpleMeterRegistry registry;
+    private MicrometerClientMetrics metrics;
+
+    @Before
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MicrometerClientMetrics(registry);
+    }
+
+    @Test
+    public void countsMessagesPerFilter() {
+        metrics.messageReceived("sensors/#", 10);
+        metrics.messageReceived("sensors/#", 20);
+        metrics.messagePublished("#", 5);
+
+        assertEquals(2, registry.get("mqtt.messages.received").tag("filter", "sensors/#").counter().count(), 0);
+        assertEquals(30, registry.get("mqtt.messages.received.bytes").tag("filter", "sensors/#").counter().count(), 0);
+        assertEquals(1, registry.get("mqtt.messages.published").tag("filter", "#").counter().count(), 0);
+    }
+
+    @Test
+    public void recordsCallbackLatencyByCallbackClass() {
+        IMessageCallback callback = new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+            }
+        };
+
+        metrics.callbackCompleted(callback, TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.callbackCompleted(callback, TimeUnit.MILLISECONDS.toNanos(4));
+
+        assertEquals(2, registry.get("mqtt.callback.latency").tag("callback", callback.getClass().getName()).timer().count());
+        assertEquals(6, registry.get("mqtt.callback.latency").timer().totalTime(TimeUnit.MILLISECONDS), 0.001);
+    }
+
+    @Test
+    public void tracksConnectionAndSubscriptionGauges() {
+        metrics.reconnectScheduled(1, 1000);
+        metrics.reconnectScheduled(2, 2000);
+        metrics.subscriptionCountChanged(7);
+        metrics.subscriptionsSynced(7, TimeUnit.MILLISECONDS.toNanos(3));
+
+        assertEquals(2, registry.get("mqtt.reconnects").counter().count(), 0);
+        assertEquals(2000, registry.get("mqtt.reconnect.delay").gauge().value(), 0);
+        assertEquals(7, registry.get("mqtt.subscriptions").gauge().value(), 0);
+        assertEquals(1, registry.get("mqtt.subscriptions.sync").timer().count());
+    }
+}
@@ -1,16 +1,24 @@
 package de.artcom.mqtt;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 public class Client implements MqttCallback, IMqttActionListener {
@@ -21,15 +29,34 @@ public class Client implements MqttCallback, IMqttActionListener {
 
     private final MqttConnectOptions connectOptions;
     private final ConnectionCallback connectionCallback;
-    private final MqttAsyncClient pahoClient;
+    private final IMqttAsyncClient pahoClient;
     private final SubscriptionHandler subscriptionHandler;
+    private final PublishWindow publishWindow;
 
     private final ScheduledExecutorService connectScheduler;
     private int connectDelay;
+    private int reconnectAttempts;
     private ScheduledFuture<?> connectingFuture;
     private boolean isConnecting;
     private boolean hasConnected;
-    private final ObjectMapper objectMapper;
+    private volatile boolean sharedPayloadDecoding;
+    private volatile Dispatcher dispatcher;
+    private volatile OfflineBuffer offlineBuffer;
+    private volatile LastValueCache lastValueCache;
+    private volatile TrafficRecorder trafficRecorder;
+    // makes caching and resolving the callbacks of a message atomic with subscribing and taking the
+    // replay snapshot, so a new callback gets each message either live or replayed. No callback runs
+    // while it is held.
+    private final Object lastValueLock = new Object();
+    private volatile ClientMetrics metrics = ClientMetrics.NONE;
+    private volatile TopicRules<String> metricsFilters = new TopicRules<>(TopicTree.MULTI_LEVEL_WILDCARD);
+    private ExecutorService conflationExecutor;
+    private final AtomicLong conflatedMessages = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong filteredMessages = new AtomicLong();
+    private final TopicRules<Codec> topicCodecs = new TopicRules<>(Codec.JSON);
+    private final ConcurrentMap<Codec, PayloadWriter> payloadWriters = new ConcurrentHashMap<>();
+    private final List<Type> registeredTypes = new CopyOnWriteArrayList<>();
 
     public Client(String tcpBrokerUri, String mqttClientId, ConnectionCallback callback) throws MqttException {
         this(tcpBrokerUri, mqttClientId, callback, DEFAULT_KEEPALIVE_SECONDS);
@@ -40,6 +67,16 @@ public class Client implements MqttCallback, IMqttActionListener {
     }
 
     public Client(String tcpBrokerUri, String mqttClientId, ConnectionCallback callback, int keepAlive, boolean cleanSession) throws MqttException {
+        this(tcpBrokerUri, mqttClientId, callback, keepAlive, cleanSession, new MemoryPersistence());
+    }
+
+    // in-flight QoS 1/2 messages only outlive the process with a persistent store and cleanSession = false
+    public Client(String tcpBrokerUri, String mqttClientId, ConnectionCallback callback, int keepAlive, boolean cleanSession, MqttClientPersistence persistence) throws MqttException {
+        this(new MqttAsyncClient(tcpBrokerUri, mqttClientId, persistence, new TimerPingSender()), callback, keepAlive, cleanSession);
+    }
+
+    // for tests and benchmarks without a broker
+    Client(IMqttAsyncClient pahoClient, ConnectionCallback callback, int keepAlive, boolean cleanSession) {
         connectionCallback = callback;
         connectOptions = new MqttConnectOptions();
         connectOptions.setKeepAliveInterval(keepAlive);
@@ -48,20 +85,14 @@ public class Client implements MqttCallback, IMqttActionListener {
 
         connectScheduler = Executors.newSingleThreadScheduledExecutor();
 
-        pahoClient = new MqttAsyncClient(tcpBrokerUri, mqttClientId, new MemoryPersistence(), new TimerPingSender());
+        this.pahoClient = pahoClient;
         pahoClient.setCallback(this);
 
         subscriptionHandler = new SubscriptionHandler(pahoClient);
-
-        objectMapper = new ObjectMapper();
-        objectMapper.setVisibility(objectMapper.getSerializationConfig().getDefaultVisibilityChecker()
-                .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
-                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
-                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
-                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
-                .withCreatorVisibility(JsonAutoDetect.Visibility.NONE));
+        publishWindow = new PublishWindow(pahoClient, connectOptions.getMaxInflight());
     }
 
+    // also cuts short a pending reconnect delay
     public void connect() {
         scheduleConnect(0);
     }
@@ -80,7 +111,7 @@ public class Client implements MqttCallback, IMqttActionListener {
         }
 
         if (!isConnecting) {
-            LOG.info("Scheduling connect in " + connectDelay + " milliseconds");
+            LOG.info("Scheduling connect in " + delay + " milliseconds");
             connectingFuture = connectScheduler.schedule(new Runnable() {
                 @Override
                 public void run() {
@@ -93,7 +124,7 @@ public class Client implements MqttCallback, IMqttActionListener {
                         reconnect();
                     }
                 }
-            }, connectDelay, TimeUnit.MILLISECONDS);
+            }, delay, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -102,19 +133,310 @@ public class Client implements MqttCallback, IMqttActionListener {
     }
 
     public void subscribe(final String topic, final IMessageCallback callback) throws MqttException {
-        subscriptionHandler.subscribe(topic, callback);
+        subscribe(topic, SubscriptionHandler.DEFAULT_QOS, callback);
+    }
+
+    public void subscribe(final String topic, final int qos, final IMessageCallback callback) throws MqttException {
+        bind(callback);
+        subscribeAndReplay(topic, callback, qos);
+    }
+
+    public void subscribe(final String topic, final IMessageCallback callback, final SubscriptionOptions options) throws MqttException {
+        bind(callback);
+
+        IMessageCallback target = callback;
+        if (options.isConflate()) {
+            target = new ConflatingCallback(target, getConflationExecutor(), conflatedMessages, droppedMessages);
+        }
+
+        // outermost, so rejected messages are not even queued for conflation
+        if (options.getFilter() != null) {
+            Codec codec = callback instanceof MessageCallback ? ((MessageCallback<?>) callback).getCodec() : null;
+            target = new FilteringCallback(target, options.getFilter(), this, codec, filteredMessages);
+        }
+
+        subscribeAndReplay(topic, target, options.getQos());
+    }
+
+    // each Reactive Streams subscriber subscribes on its own and unsubscribes when it cancels
+    public <T> MessagePublisher<T> subscribe(final String topic, final Class<T> payloadType, final int qos, final int bufferSize, final MessagePublisher.OverflowPolicy overflowPolicy) {
+        return new MessagePublisher<>(this, topic, payloadType, qos, bufferSize, overflowPolicy);
     }
 
     public void unsubscribe(final String topic, final IMessageCallback callback) throws MqttException {
-        subscriptionHandler.unsubscribe(topic, callback);
+        IMessageCallback removed;
+        LastValueCache cache = lastValueCache;
+        if (cache == null) {
+            removed = subscriptionHandler.unsubscribe(topic, callback);
+        } else {
+            synchronized (lastValueLock) {
+                removed = subscriptionHandler.unsubscribe(topic, callback);
+                cache.removeUncovered(topic, subscriptionHandler);
+            }
+        }
+
+        if (removed instanceof WrappedCallback) {
+            ((WrappedCallback) removed).close();
+        }
     }
 
     public void publish(final String topic, final Object payload, final int qos, final boolean retained, IMqttActionListener callback) throws MqttException, JsonProcessingException {
-        publish(topic, objectMapper.writeValueAsBytes(payload), qos, retained, callback);
+        publish(topic, writerFor(topic).write(payload), qos, retained, callback);
+    }
+
+    // publishes the remaining bytes without moving the position, a buffer wrapping a whole array is not copied
+    public void publish(final String topic, final ByteBuffer payload, final int qos, final boolean retained, IMqttActionListener callback) throws MqttException {
+        byte[] bytes;
+        if (payload.hasArray() && payload.arrayOffset() == 0 && payload.position() == 0
+                && payload.remaining() == payload.array().length) {
+            bytes = payload.array();
+        } else {
+            bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+        }
+
+        publish(topic, bytes, qos, retained, callback);
+    }
+
+    public void publish(final String topic, final byte[] payload, final int qos, final boolean retained, final IMqttActionListener callback) throws MqttException {
+        ClientMetrics metrics = this.metrics;
+        String topicFilter = metrics == ClientMetrics.NONE ? null : metricsFilters.forTopic(topic);
+
+        send(topic, payload, qos, retained, topicFilter, callback);
+
+        TrafficRecorder recorder = trafficRecorder;
+        if (recorder != null) {
+            recorder.published(topic, payload, qos, retained);
+        }
+
+        if (topicFilter != null) {
+            metrics.messagePublished(topicFilter, payload.length);
+        }
+    }
+
+    // the topic filter is set when metrics time the acknowledgement
+    private void send(final String topic, final byte[] payload, final int qos, final boolean retained, String topicFilter, IMqttActionListener callback) throws MqttException {
+        OfflineBuffer buffer = offlineBuffer;
+        if (buffer == null) {
+            sendNow(topic, payload, qos, retained, topicFilter, callback);
+            return;
+        }
+
+        // queue behind messages still waiting to be sent to preserve the order
+        if (!pahoClient.isConnected() || !buffer.isEmpty()) {
+            buffer.add(topic, payload, qos, retained, callback);
+            if (pahoClient.isConnected()) {
+                buffer.drain(pahoClient, connectOptions.getMaxInflight());
+            }
+            return;
+        }
+
+        try {
+            sendNow(topic, payload, qos, retained, topicFilter, callback);
+        } catch (MqttException e) {
+            if (e.getReasonCode() != MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                throw e;
+            }
+
+            buffer.add(topic, payload, qos, retained, callback);
+        }
+    }
+
+    // a timed message is also the user context, deliveryComplete reports it from there
+    private void sendNow(final String topic, final byte[] payload, final int qos, final boolean retained, String topicFilter, IMqttActionListener callback) throws MqttException {
+        if (topicFilter == null) {
+            pahoClient.publish(topic, payload, qos, retained, null, callback);
+        } else {
+            TimedMessage message = new TimedMessage(payload, qos, retained, topicFilter);
+            pahoClient.publish(topic, message, message, callback);
+        }
+    }
+
+    public PublishFuture publishAsync(final String topic, final Object payload, final int qos, final boolean retained) throws JsonProcessingException {
+        return publishAsync(topic, writerFor(topic).write(payload), qos, retained);
+    }
+
+    // waits while the window is full. Beyond the waiting limit the future fails with REASON_CODE_MAX_INFLIGHT,
+    // or the call blocks until there is room after setBlockingPublish(true). While disconnected the message
+    // goes to the offline buffer if one is set.
+    public PublishFuture publishAsync(final String topic, final byte[] payload, final int qos, final boolean retained) {
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        message.setRetained(retained);
+        PublishFuture future = publishWindow.publish(topic, message);
+
+        TrafficRecorder recorder = trafficRecorder;
+        if (recorder != null) {
+            recorder.published(topic, payload, qos, retained);
+        }
+
+        ClientMetrics metrics = this.metrics;
+        if (metrics != ClientMetrics.NONE) {
+            metrics.messagePublished(metricsFilters.forTopic(topic), payload.length);
+        }
+
+        return future;
+    }
+
+    // maximum number of publishAsync messages awaiting acknowledgement, paho's own limit follows on the next connect
+    public void setPublishWindow(int size) {
+        publishWindow.setSize(size);
+        connectOptions.setMaxInflight(Math.max(size, connectOptions.getMaxInflight()));
+    }
+
+    public int getInFlightPublishCount() {
+        return publishWindow.getInFlightCount();
+    }
+
+    // publishAsync messages allowed to wait for the window, see PublishWindow.DEFAULT_WAITING_LIMIT
+    public void setWaitingPublishLimit(int limit) {
+        publishWindow.setWaitingLimit(limit);
+    }
+
+    // publishAsync blocks beyond the waiting limit instead of failing, so it must not be called from
+    // callbacks running on the paho thread, whose acknowledgements make the room
+    public void setBlockingPublish(boolean blocking) {
+        publishWindow.setBlocking(blocking);
+    }
+
+    public int getWaitingPublishCount() {
+        return publishWindow.getWaitingCount();
+    }
+
+    public long getAverageAckLatency(TimeUnit unit) {
+        return unit.convert(publishWindow.getAverageAckNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxAckLatency(TimeUnit unit) {
+        return unit.convert(publishWindow.getMaxAckNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // topics are reported by the first matching filter, or "#"
+    public void setMetrics(ClientMetrics metrics, String... topicFilters) {
+        TopicRules<String> filters = new TopicRules<>(TopicTree.MULTI_LEVEL_WILDCARD);
+        for (String filter : topicFilters) {
+            filters.put(filter, filter);
+        }
+
+        metricsFilters = filters;
+        this.metrics = metrics;
+        subscriptionHandler.setMetrics(metrics);
+    }
+
+    // keeps the topic filters, returns the metrics replaced
+    ClientMetrics replaceMetrics(ClientMetrics metrics) {
+        ClientMetrics previous = this.metrics;
+        this.metrics = metrics;
+        subscriptionHandler.setMetrics(metrics);
+        return previous;
+    }
+
+    // publishes and MessageCallbacks without a codec of their own use the codec of the first matching filter, or JSON
+    public void setCodec(final String topicFilter, final Codec codec) {
+        topicCodecs.put(topicFilter, codec);
+        if (codec != null) {
+            for (Type type : registeredTypes) {
+                prepare(type, codec);
+            }
+        }
+    }
+
+    // builds the reader and writer of a payload type for every codec of the client, including codecs set later,
+    // so the first message of the type does not pay for constructing Jackson's deserializer and serializer
+    public void registerPayloadType(Type payloadType) {
+        registeredTypes.add(payloadType);
+        for (Codec codec : topicCodecs.values()) {
+            prepare(payloadType, codec);
+        }
+    }
+
+    // also encodes and decodes the sample with each codec to get the JIT going, best called before connect()
+    public void registerPayloadType(Type payloadType, Object sample, int warmupRuns) {
+        registerPayloadType(payloadType);
+        for (Codec codec : topicCodecs.values()) {
+            PayloadWriter writer = writerFor(codec);
+            PayloadReader reader = codec.readerFor(payloadType);
+            try {
+                for (int i = 0; i < warmupRuns; i++) {
+                    reader.read(writer.write(sample));
+                }
+            } catch (IOException e) {
+                LOG.severe("Error: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private void prepare(Type payloadType, Codec codec) {
+        codec.readerFor(payloadType);
+        if (payloadType instanceof Class && payloadType != JsonPayload.class) {
+            writerFor(codec).prepare((Class<?>) payloadType);
+        }
+    }
+
+    // maximum number of topics sent in a single SUBSCRIBE or UNSUBSCRIBE packet
+    public void setSubscriptionBatchSize(int batchSize) {
+        subscriptionHandler.setBatchSize(batchSize);
+    }
+
+    // collect subscriptions made while connected for the given time and send them in batches
+    public void setSubscribeCoalescingWindow(long millis) throws MqttException {
+        subscriptionHandler.setCoalescing(connectScheduler, millis);
     }
 
-    public void publish(final String topic, final byte[] payload, final int qos, final boolean retained, IMqttActionListener callback) throws MqttException {
-        pahoClient.publish(topic, payload, qos, retained, null, callback);
+    public void setTopicCacheSize(int size) {
+        subscriptionHandler.getTopicCache().setCapacity(size);
+    }
+
+    public long getTopicCacheHitCount() {
+        return subscriptionHandler.getTopicCache().getHitCount();
+    }
+
+    public long getTopicCacheMissCount() {
+        return subscriptionHandler.getTopicCache().getMissCount();
+    }
+
+    // callbacks expecting the same payload type receive the same decoded instance and must not modify it
+    public void setSharedPayloadDecoding(boolean enabled) {
+        sharedPayloadDecoding = enabled;
+    }
+
+    // null runs callbacks inline on the paho receive thread
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    // messages published while disconnected, also with publishAsync, are queued and sent after (re)connecting, null fails them
+    public void setOfflineBuffer(OfflineBuffer buffer) {
+        offlineBuffer = buffer;
+        publishWindow.setOfflineBuffer(buffer);
+    }
+
+    // the latest message of each topic is replayed to callbacks subscribing later, null disables it. A replay
+    // is skipped once a newer message of its topic arrived. Through a dispatcher replays are queued like live
+    // messages and keep their order, inline they run on the subscribing thread and may overlap with a live
+    // message of the same topic arriving meanwhile on the paho thread.
+    public void setLastValueCache(LastValueCache cache) {
+        lastValueCache = cache;
+    }
+
+    // captures received and published messages for a TrafficReplayer, null stops capturing
+    public void setTrafficRecorder(TrafficRecorder recorder) {
+        trafficRecorder = recorder;
+    }
+
+    // messages replaced by a newer one of the same topic before a conflating callback was ready
+    public long getConflatedMessageCount() {
+        return conflatedMessages.get();
+    }
+
+    // messages still pending for a conflating callback when it was unsubscribed
+    public long getDroppedMessageCount() {
+        return droppedMessages.get();
+    }
+
+    // messages rejected by the payload filter of a callback, also reported per topic filter to the metrics
+    public long getFilteredMessageCount() {
+        return filteredMessages.get();
     }
 
     public boolean isConnected() {
@@ -125,6 +447,7 @@ public class Client implements MqttCallback, IMqttActionListener {
     public void onSuccess(IMqttToken iMqttToken) {
         LOG.info("Connection to broker established");
         connectDelay = 0;
+        reconnectAttempts = 0;
         isConnecting = false;
 
         try {
@@ -133,6 +456,13 @@ public class Client implements MqttCallback, IMqttActionListener {
             LOG.severe("Error: " + e.getLocalizedMessage());
         }
 
+        OfflineBuffer buffer = offlineBuffer;
+        if (buffer != null) {
+            buffer.drain(pahoClient, connectOptions.getMaxInflight());
+        }
+
+        publishWindow.send();
+
         if (!hasConnected) {
             connectionCallback.onConnect();
             hasConnected = true;
@@ -159,18 +489,199 @@ public class Client implements MqttCallback, IMqttActionListener {
 
     @Override
     public void messageArrived(String topic, MqttMessage message) throws Exception {
-        List<IMessageCallback> callbacks = subscriptionHandler.getCallbacks(topic);
+        ClientMetrics metrics = this.metrics;
+        long arrivalNanos = 0;
+        if (metrics != ClientMetrics.NONE) {
+            arrivalNanos = System.nanoTime();
+            metrics.messageReceived(metricsFilters.forTopic(topic), message.getPayload().length);
+        }
+
+        TrafficRecorder recorder = trafficRecorder;
+        if (recorder != null) {
+            recorder.received(topic, message);
+        }
+
+        List<IMessageCallback> callbacks;
+        LastValueCache cache = lastValueCache;
+        if (cache == null) {
+            callbacks = subscriptionHandler.getCallbacks(topic);
+        } else {
+            synchronized (lastValueLock) {
+                callbacks = subscriptionHandler.getCallbacks(topic);
+
+                // a message still arriving after its filter was unsubscribed is not cached
+                if (!callbacks.isEmpty()) {
+                    cache.put(topic, message);
+                }
+            }
+        }
+
+        dispatch(topic, message, callbacks, arrivalNanos);
+    }
+
+    // after recording and caching, also the entry point for TrafficReplayer
+    void dispatch(String topic, MqttMessage message, long arrivalNanos) {
+        dispatch(topic, message, subscriptionHandler.getCallbacks(topic), arrivalNanos);
+    }
+
+    private void dispatch(String topic, MqttMessage message, List<IMessageCallback> callbacks, long arrivalNanos) {
+        if (callbacks.isEmpty()) {
+            return;
+        }
+
+        SharedPayloads payloads = sharedPayloadDecoding && callbacks.size() > 1
+                ? new SharedPayloads(message.getPayload())
+                : null;
+
+        Dispatcher dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            deliver(topic, message, callbacks, payloads, arrivalNanos);
+        } else {
+            dispatcher.dispatch(this, topic, message, callbacks, payloads, arrivalNanos);
+        }
+    }
+
+    void deliver(String topic, MqttMessage message, List<IMessageCallback> callbacks, SharedPayloads payloads, long arrivalNanos) {
+        ClientMetrics metrics = this.metrics;
         for (IMessageCallback callback : callbacks) {
             try {
-                callback.onRawMessage(topic, message);
+                if (payloads != null) {
+                    SharedPayloads.deliver(callback, topic, message, payloads);
+                } else {
+                    callback.onRawMessage(topic, message);
+                }
             } catch (Exception e) {
                 LOG.severe("Error: " + e.getLocalizedMessage());
             }
+
+            if (metrics != ClientMetrics.NONE) {
+                metrics.callbackCompleted(callback, System.nanoTime() - arrivalNanos);
+            }
+        }
+    }
+
+    // skipped if a newer message of the topic was cached since the replay was taken
+    void replay(LastValueCache.Entry entry, List<IMessageCallback> callbacks, long arrivalNanos) {
+        LastValueCache cache = lastValueCache;
+        if (cache != null && cache.isCurrent(entry)) {
+            deliver(entry.topic, entry.message, callbacks, null, arrivalNanos);
         }
     }
 
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
+        // any completion frees a paho slot for a buffered message rejected while the slots were taken
+        OfflineBuffer buffer = offlineBuffer;
+        if (buffer != null && !buffer.isEmpty() && pahoClient.isConnected()) {
+            buffer.drain(pahoClient, connectOptions.getMaxInflight());
+        }
+
+        PublishFuture future = publishWindow.deliveryComplete(token);
+
+        ClientMetrics metrics = this.metrics;
+        if (metrics == ClientMetrics.NONE) {
+            return;
+        }
+
+        if (future != null) {
+            metrics.publishAcknowledged(metricsFilters.forTopic(future.topic), System.nanoTime() - future.sentNanos);
+        } else if (token.getUserContext() instanceof TimedMessage) {
+            TimedMessage message = (TimedMessage) token.getUserContext();
+            metrics.publishAcknowledged(message.topicFilter, System.nanoTime() - message.sentNanos);
+        }
+    }
+
+    int getCallbackCount(String topic) {
+        return subscriptionHandler.getCallbacks(topic).size();
+    }
+
+    // callback invocations the dispatcher dropped or conflated, none without a dispatcher
+    long getSkippedCallbackCount() {
+        Dispatcher dispatcher = this.dispatcher;
+        return dispatcher == null ? 0 : dispatcher.getSkippedCallbackCount();
+    }
+
+    Codec codecFor(String topic) {
+        return topicCodecs.forTopic(topic);
+    }
+
+    void parseError(String topic) {
+        ClientMetrics metrics = this.metrics;
+        if (metrics != ClientMetrics.NONE) {
+            metrics.parseError(metricsFilters.forTopic(topic));
+        }
+    }
+
+    void messageFiltered(String topic) {
+        ClientMetrics metrics = this.metrics;
+        if (metrics != ClientMetrics.NONE) {
+            metrics.messageFiltered(metricsFilters.forTopic(topic));
+        }
+    }
+
+    private void subscribeAndReplay(String topic, IMessageCallback callback, int qos) throws MqttException {
+        LastValueCache cache = lastValueCache;
+        if (cache == null) {
+            subscriptionHandler.subscribe(topic, callback, qos);
+            return;
+        }
+
+        List<LastValueCache.Entry> replays;
+        synchronized (lastValueLock) {
+            subscriptionHandler.subscribe(topic, callback, qos);
+            replays = cache.matching(topic);
+        }
+
+        // queued like live messages, so a dispatcher keeps replays in order with them
+        List<IMessageCallback> callbacks = Collections.singletonList(callback);
+        Dispatcher dispatcher = this.dispatcher;
+        for (LastValueCache.Entry entry : replays) {
+            if (dispatcher == null) {
+                replay(entry, callbacks, System.nanoTime());
+            } else {
+                dispatcher.replay(this, entry, callbacks, System.nanoTime());
+            }
+        }
+    }
+
+    private void bind(IMessageCallback callback) {
+        if (callback instanceof MessageCallback) {
+            MessageCallback<?> messageCallback = (MessageCallback<?>) callback;
+            messageCallback.setClient(this);
+            messageCallback.prepare();
+        }
+    }
+
+    private PayloadWriter writerFor(String topic) {
+        return writerFor(topicCodecs.forTopic(topic));
+    }
+
+    private PayloadWriter writerFor(Codec codec) {
+        PayloadWriter writer = payloadWriters.get(codec);
+        if (writer == null) {
+            writer = new PayloadWriter(PayloadWriter.newMapper(codec.newFactory()));
+            PayloadWriter existing = payloadWriters.putIfAbsent(codec, writer);
+            if (existing != null) {
+                writer = existing;
+            }
+        }
+
+        return writer;
+    }
+
+    synchronized private ExecutorService getConflationExecutor() {
+        if (conflationExecutor == null) {
+            conflationExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mqtt-conflation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return conflationExecutor;
     }
 
     private void reconnect() {
@@ -180,6 +691,22 @@ public class Client implements MqttCallback, IMqttActionListener {
             connectDelay = Math.min(MAX_RECONNECT_DELAY, connectDelay << 1);
         }
 
+        reconnectAttempts++;
+        metrics.reconnectScheduled(reconnectAttempts, connectDelay);
         scheduleConnect(connectDelay);
     }
+
+    // replaces the message paho would create for the payload, so timing a publish allocates nothing extra
+    private static final class TimedMessage extends MqttMessage {
+        private final String topicFilter;
+        private final long sentNanos;
+
+        private TimedMessage(byte[] payload, int qos, boolean retained, String topicFilter) {
+            super(payload);
+            setQos(qos);
+            setRetained(retained);
+            this.topicFilter = topicFilter;
+            this.sentNanos = System.nanoTime();
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package de.artcom.mqtt;
+
+/**
+ * Receives measurements from a {@link Client}. All methods do nothing by default, so an
+ * implementation only overrides what it records. Methods are called on paho and dispatcher
+ * threads in the message path and must neither block nor allocate.
+ *
+ * Topics are reported by the first matching filter passed to {@link Client#setMetrics}, or "#".
+ */
+public abstract class ClientMetrics {
+    public static final ClientMetrics NONE = new ClientMetrics() {
+    };
+
+    public void messageReceived(String topicFilter, int payloadBytes) {
+    }
+
+    public void messagePublished(String topicFilter, int payloadBytes) {
+    }
+
+    // time from the arrival of a message until the callback returned, including dispatcher queueing
+    public void callbackCompleted(IMessageCallback callback, long latencyNanos) {
+    }
+
+    public void parseError(String topicFilter) {
+    }
+
+    // once for every callback whose payload filter rejected a message
+    public void messageFiltered(String topicFilter) {
+    }
+
+    // from Client#publish or Client#publishAsync until the broker completed the delivery, messages
+    // sent from an offline buffer are not timed
+    public void publishAcknowledged(String topicFilter, long latencyNanos) {
+    }
+
+    public void reconnectScheduled(int attempt, long delayMillis) {
+    }
+
+    public void subscriptionCountChanged(int count) {
+    }
+
+    public void subscriptionsSynced(int count, long durationNanos) {
+    }
+
+    // the callback as passed to Client#subscribe, for callbacks wrapped by subscription options
+    protected static IMessageCallback subscribedCallback(IMessageCallback callback) {
+        while (callback instanceof WrappedCallback) {
+            callback = ((WrappedCallback) callback).delegate;
+        }
+
+        return callback;
+    }
+}
@@ -0,0 +1,100 @@
+package de.artcom.mqtt;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A map bounded by a capacity. Lookups are lock-free, eviction approximates LRU with a
+// second-chance (clock) sweep that only runs when an insert exceeds the capacity.
+final class ClockCache<K, V> {
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private volatile int capacity;
+
+    private Iterator<Map.Entry<K, Entry<V>>> clockHand;
+
+    ClockCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+
+        return entry.value;
+    }
+
+    void put(K key, V value) {
+        if (capacity <= 0) {
+            return;
+        }
+
+        Entry<V> entry = new Entry<>(value);
+        entries.put(key, entry);
+        if (entries.size() > capacity) {
+            evict(entry);
+        }
+    }
+
+    void remove(K key) {
+        entries.remove(key);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    // a live view, removing keys while iterating is safe
+    Set<K> keySet() {
+        return entries.keySet();
+    }
+
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+        evict(null);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    synchronized private void evict(Entry<V> inserted) {
+        while (entries.size() > Math.max(capacity, 0)) {
+            if (clockHand == null || !clockHand.hasNext()) {
+                clockHand = entries.entrySet().iterator();
+                if (!clockHand.hasNext()) {
+                    return;
+                }
+            }
+
+            Map.Entry<K, Entry<V>> candidate = clockHand.next();
+            Entry<V> entry = candidate.getValue();
+            if (entry == inserted && entries.size() > 1) {
+                continue;
+            }
+
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else {
+                entries.remove(candidate.getKey(), entry);
+            }
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+
+        // racy by design, a lost update only makes eviction slightly less accurate
+        private boolean referenced;
+
+        private Entry(V value) {
+            this.value = value;
+        }
+    }
+}
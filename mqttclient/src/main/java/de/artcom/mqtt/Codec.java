@@ -0,0 +1,73 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The encoding of payloads on the wire. Any format with a Jackson {@link JsonFactory} can be used,
+ * JSON, CBOR and Smile are provided. Codecs are chosen per topic filter with
+ * {@link Client#setCodec} or per callback with {@link MessageCallback#MessageCallback(Codec)}.
+ */
+public final class Codec {
+    public static final Codec JSON = new Codec("JSON", new JsonFactory());
+    public static final Codec CBOR = new Codec("CBOR", new CBORFactory());
+    public static final Codec SMILE = new Codec("Smile", new SmileFactory());
+
+    private final String name;
+    private final JsonFactory factory;
+
+    // readers are immutable and thread-safe, so one per payload type is shared by all callbacks
+    private final ConcurrentMap<Type, PayloadReader> readers = new ConcurrentHashMap<>();
+    private volatile ObjectMapper readerMapper;
+
+    public Codec(String name, JsonFactory factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // parsers may share the factory, only mappers configure it
+    JsonFactory getFactory() {
+        return factory;
+    }
+
+    // each mapper needs a factory of its own
+    JsonFactory newFactory() {
+        return factory.copy();
+    }
+
+    PayloadReader readerFor(Type type) {
+        PayloadReader reader = readers.get(type);
+        if (reader == null) {
+            reader = PayloadReader.forType(this, getReaderMapper(), type);
+            PayloadReader existing = readers.putIfAbsent(type, reader);
+            if (existing != null) {
+                reader = existing;
+            }
+        }
+
+        return reader;
+    }
+
+    private ObjectMapper getReaderMapper() {
+        if (readerMapper == null) {
+            readerMapper = PayloadReader.newMapper(newFactory());
+        }
+
+        return readerMapper;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
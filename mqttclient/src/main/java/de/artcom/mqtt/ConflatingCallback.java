@@ -0,0 +1,100 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// Keeps at most one pending message per topic and hands it to the delegate on the executor,
+// so a slow callback always receives the latest value instead of building up a backlog.
+final class ConflatingCallback extends WrappedCallback implements Runnable {
+    private static final Logger LOG = Logger.getLogger(ConflatingCallback.class.getSimpleName());
+
+    private final Executor executor;
+    private final AtomicLong conflated;
+    private final AtomicLong dropped;
+
+    private final Map<String, MqttMessage> pending = new LinkedHashMap<>();
+    private boolean isScheduled;
+    private boolean isClosed;
+
+    ConflatingCallback(IMessageCallback delegate, Executor executor, AtomicLong conflated, AtomicLong dropped) {
+        super(delegate);
+        this.executor = executor;
+        this.conflated = conflated;
+        this.dropped = dropped;
+    }
+
+    @Override
+    public void onRawMessage(String topic, MqttMessage message) {
+        synchronized (this) {
+            if (isClosed) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            if (pending.put(topic, message) != null) {
+                conflated.incrementAndGet();
+            }
+
+            if (isScheduled) {
+                return;
+            }
+
+            isScheduled = true;
+        }
+
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            LOG.severe("Error: " + e.getLocalizedMessage());
+            synchronized (this) {
+                isScheduled = false;
+                dropped.addAndGet(pending.size());
+                pending.clear();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            String topic;
+            MqttMessage message;
+            synchronized (this) {
+                Iterator<Map.Entry<String, MqttMessage>> iterator = pending.entrySet().iterator();
+                if (!iterator.hasNext()) {
+                    isScheduled = false;
+                    return;
+                }
+
+                Map.Entry<String, MqttMessage> next = iterator.next();
+                topic = next.getKey();
+                message = next.getValue();
+                iterator.remove();
+            }
+
+            try {
+                delegate.onRawMessage(topic, message);
+            } catch (Exception e) {
+                LOG.severe("Error: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    @Override
+    void close() {
+        synchronized (this) {
+            isClosed = true;
+            dropped.addAndGet(pending.size());
+            pending.clear();
+        }
+
+        super.close();
+    }
+}
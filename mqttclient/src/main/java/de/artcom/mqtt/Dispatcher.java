@@ -0,0 +1,323 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs callbacks on worker stripes instead of the paho receive thread. Messages are assigned to
+ * a stripe by topic or by subscription, so their order is preserved per topic (or per callback)
+ * while different topics are processed in parallel.
+ */
+public class Dispatcher {
+    private static final Logger LOG = Logger.getLogger(Dispatcher.class.getSimpleName());
+
+    public enum OverflowPolicy {
+        // wait for space, which eventually stops paho from reading the socket
+        BLOCK,
+        DROP_OLDEST,
+        // replace a pending message of the same topic and callbacks, otherwise drop the oldest
+        CONFLATE
+    }
+
+    public enum Partitioning {
+        TOPIC,
+        SUBSCRIPTION
+    }
+
+    private final Stripe[] stripes;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Partitioning partitioning;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    // callback invocations lost with dropped and conflated deliveries
+    private final AtomicLong skippedCallbacks = new AtomicLong();
+
+    public Dispatcher(int stripeCount, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(stripeCount, queueCapacity, overflowPolicy, Partitioning.TOPIC, new DaemonThreadFactory());
+    }
+
+    public Dispatcher(int stripeCount, int queueCapacity, OverflowPolicy overflowPolicy,
+                      Partitioning partitioning, ThreadFactory threadFactory) {
+        if (stripeCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Stripe count and queue capacity must be positive");
+        }
+
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.partitioning = partitioning;
+
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+            threadFactory.newThread(stripes[i]).start();
+        }
+    }
+
+    // uses Thread.ofVirtual() when running on JDK 21 or later
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "mqtt-dispatch-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later", e);
+        }
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    void dispatch(Client client, String topic, MqttMessage message, List<IMessageCallback> callbacks, SharedPayloads payloads, long arrivalNanos) {
+        if (partitioning == Partitioning.TOPIC) {
+            stripeFor(topic).offer(new Delivery(client, topic, message, callbacks, payloads, arrivalNanos, null));
+        } else {
+            for (IMessageCallback callback : callbacks) {
+                stripeFor(callback).offer(new Delivery(client, topic, message, Collections.singletonList(callback), payloads, arrivalNanos, null));
+            }
+        }
+    }
+
+    // replays are bounded by the last-value cache and queued beyond the capacity, so a callback
+    // subscribing on a stripe never waits for room in its own queue
+    void replay(Client client, LastValueCache.Entry entry, List<IMessageCallback> callbacks, long arrivalNanos) {
+        Object key = partitioning == Partitioning.TOPIC ? entry.topic : callbacks.get(0);
+        stripeFor(key).enqueue(new Delivery(client, entry.topic, entry.message, callbacks, null, arrivalNanos, entry));
+    }
+
+    public void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public int getQueueDepth(int stripe) {
+        return stripes[stripe].size();
+    }
+
+    public int[] getQueueDepths() {
+        int[] depths = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            depths[i] = stripes[i].size();
+        }
+
+        return depths;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    long getSkippedCallbackCount() {
+        return skippedCallbacks.get();
+    }
+
+    private Stripe stripeFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private static final class Delivery {
+        private final Client client;
+        private final String topic;
+        private final List<IMessageCallback> callbacks;
+        // set for last-value replays, which are never conflated
+        private final LastValueCache.Entry replayed;
+        private MqttMessage message;
+        private SharedPayloads payloads;
+        private long arrivalNanos;
+
+        private Delivery(Client client, String topic, MqttMessage message, List<IMessageCallback> callbacks,
+                         SharedPayloads payloads, long arrivalNanos, LastValueCache.Entry replayed) {
+            this.client = client;
+            this.topic = topic;
+            this.message = message;
+            this.callbacks = callbacks;
+            this.payloads = payloads;
+            this.arrivalNanos = arrivalNanos;
+            this.replayed = replayed;
+        }
+
+        void run() {
+            if (replayed == null) {
+                client.deliver(topic, message, callbacks, payloads, arrivalNanos);
+            } else {
+                client.replay(replayed, callbacks, arrivalNanos);
+            }
+        }
+
+        // deliveries of the same topic to the same callbacks replace each other when conflating
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Delivery)) {
+                return false;
+            }
+
+            Delivery delivery = (Delivery) other;
+            return topic.equals(delivery.topic) && callbacks.equals(delivery.callbacks);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * topic.hashCode() + callbacks.hashCode();
+        }
+    }
+
+    private final class Stripe implements Runnable {
+        private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+        // the queued delivery of each topic and callback list, keyed by the delivery itself
+        private final Map<Delivery, Delivery> pendingDeliveries = new HashMap<>();
+        private boolean isShutdown;
+
+        synchronized void offer(Delivery delivery) {
+            if (isShutdown) {
+                drop(delivery);
+                return;
+            }
+
+            if (queue.size() >= queueCapacity && !makeRoom(delivery)) {
+                return;
+            }
+
+            queue.add(delivery);
+            if (overflowPolicy == OverflowPolicy.CONFLATE) {
+                pendingDeliveries.put(delivery, delivery);
+            }
+
+            notifyAll();
+        }
+
+        synchronized void enqueue(Delivery delivery) {
+            if (isShutdown) {
+                drop(delivery);
+                return;
+            }
+
+            queue.add(delivery);
+            notifyAll();
+        }
+
+        // returns false if the delivery was merged into a pending one or dropped
+        private boolean makeRoom(Delivery delivery) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                while (queue.size() >= queueCapacity && !isShutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop(delivery);
+                        return false;
+                    }
+                }
+
+                if (isShutdown) {
+                    drop(delivery);
+                    return false;
+                }
+
+                return true;
+            }
+
+            if (overflowPolicy == OverflowPolicy.CONFLATE) {
+                Delivery pending = pendingDeliveries.get(delivery);
+                if (pending != null) {
+                    pending.message = delivery.message;
+                    pending.payloads = delivery.payloads;
+                    pending.arrivalNanos = delivery.arrivalNanos;
+                    conflated.incrementAndGet();
+                    skippedCallbacks.addAndGet(pending.callbacks.size());
+                    return false;
+                }
+            }
+
+            Delivery oldest = queue.poll();
+            remove(oldest);
+            drop(oldest);
+            return true;
+        }
+
+        private void drop(Delivery delivery) {
+            dropped.incrementAndGet();
+            skippedCallbacks.addAndGet(delivery.callbacks.size());
+        }
+
+        synchronized int size() {
+            return queue.size();
+        }
+
+        synchronized void shutdown() {
+            isShutdown = true;
+            notifyAll();
+        }
+
+        private synchronized Delivery take() throws InterruptedException {
+            while (queue.isEmpty()) {
+                if (isShutdown) {
+                    return null;
+                }
+
+                wait();
+            }
+
+            Delivery delivery = queue.poll();
+            remove(delivery);
+            notifyAll();
+            return delivery;
+        }
+
+        private void remove(Delivery delivery) {
+            if (delivery != null && pendingDeliveries.get(delivery) == delivery) {
+                pendingDeliveries.remove(delivery);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Delivery delivery;
+                while ((delivery = take()) != null) {
+                    delivery.run();
+                }
+            } catch (InterruptedException e) {
+                LOG.info("Dispatch stripe interrupted");
+            }
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mqtt-dispatch-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
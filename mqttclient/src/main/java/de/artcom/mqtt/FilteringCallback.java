@@ -0,0 +1,57 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands only messages passing the filter to the delegate, checking the raw payload with the
+// parser factory of the codec the delegate decodes with.
+final class FilteringCallback extends WrappedCallback {
+    private final PayloadFilter filter;
+    private final Client client;
+    private final Codec codec;
+    private final AtomicLong filtered;
+
+    FilteringCallback(IMessageCallback delegate, PayloadFilter filter, Client client, Codec codec, AtomicLong filtered) {
+        super(delegate);
+        this.filter = filter;
+        this.client = client;
+        this.codec = codec;
+        this.filtered = filtered;
+    }
+
+    @Override
+    public void onRawMessage(String topic, MqttMessage message) {
+        if (accept(topic, message)) {
+            delegate.onRawMessage(topic, message);
+        }
+    }
+
+    void onSharedMessage(String topic, MqttMessage message, SharedPayloads payloads) {
+        if (accept(topic, message)) {
+            SharedPayloads.deliver(delegate, topic, message, payloads);
+        }
+    }
+
+    private boolean accept(String topic, MqttMessage message) {
+        byte[] payload = message.getPayload();
+        if (payload.length > 0 && !accept(topic, payload)) {
+            filtered.incrementAndGet();
+            client.messageFiltered(topic);
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean accept(String topic, byte[] payload) {
+        Codec codec = this.codec == null ? client.codecFor(topic) : this.codec;
+        try {
+            return filter.accept(codec.getFactory(), payload);
+        } catch (IOException e) {
+            // the delegate reports payloads it cannot parse
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * A lazily parsed JSON payload for callbacks that only look at a few fields. Use it as the type
+ * argument of a {@link MessageCallback} to skip object mapping entirely. Payloads of other codecs
+ * are read into the same tree model.
+ */
+public final class JsonPayload {
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+    private final byte[] bytes;
+    private final ObjectMapper objectMapper;
+    private JsonNode node;
+
+    public JsonPayload(byte[] bytes) {
+        this(bytes, jsonMapper);
+    }
+
+    JsonPayload(byte[] bytes, ObjectMapper objectMapper) {
+        this.bytes = bytes;
+        this.objectMapper = objectMapper;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    synchronized public JsonNode getNode() throws IOException {
+        if (node == null) {
+            node = objectMapper.readTree(bytes);
+        }
+
+        return node;
+    }
+
+    /**
+     * Returns the value of a top-level field or null if there is none. Unless the whole document
+     * was parsed already, this only scans the payload up to the requested field.
+     */
+    public JsonNode get(String fieldName) throws IOException {
+        synchronized (this) {
+            if (node != null) {
+                return node.get(fieldName);
+            }
+        }
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+
+                if (fieldName.equals(name)) {
+                    return parser.readValueAsTree();
+                }
+
+                parser.skipChildren();
+            }
+        }
+
+        return null;
+    }
+}
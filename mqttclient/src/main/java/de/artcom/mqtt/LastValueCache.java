@@ -0,0 +1,133 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the latest message of each received topic, so that a callback subscribing to a filter
+ * the client already covers is replayed the current state at once instead of waiting for the next
+ * publish. The least recently updated topics are evicted beyond the entry or byte limit, and topics
+ * no subscription covers any more are dropped on unsubscribe.
+ */
+public class LastValueCache {
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // in order of their last update
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long byteCount;
+
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    public LastValueCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Entry and byte limits must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized public int size() {
+        return entries.size();
+    }
+
+    synchronized public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    synchronized public void clear() {
+        entries.clear();
+        byteCount = 0;
+    }
+
+    // an empty message clears the topic, like it clears a retained message on the broker
+    synchronized void put(String topic, MqttMessage message) {
+        remove(topic);
+
+        int length = message.getPayload().length;
+        if (length == 0 || length > maxBytes) {
+            return;
+        }
+
+        entries.put(topic, new Entry(topic, message));
+        byteCount += length;
+
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (entries.size() > maxEntries || byteCount > maxBytes) {
+            byteCount -= oldest.next().message.getPayload().length;
+            oldest.remove();
+            evicted.incrementAndGet();
+        }
+    }
+
+    // the cached topics matching the filter, oldest update first
+    synchronized List<Entry> matching(String topicFilter) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (SubscriptionHandler.matches(entry.topic, topicFilter)) {
+                result.add(entry);
+            }
+        }
+
+        replayed.addAndGet(result.size());
+        return result;
+    }
+
+    // every update replaces the entry, so it is no longer current once its topic was updated,
+    // cleared or evicted since it was taken
+    synchronized boolean isCurrent(Entry entry) {
+        return entries.get(entry.topic) == entry;
+    }
+
+    // after the filter was unsubscribed, the messages of its topics would no longer be updated
+    synchronized void removeUncovered(String topicFilter, SubscriptionHandler subscriptions) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (SubscriptionHandler.matches(entry.topic, topicFilter) && !subscriptions.isRouted(entry.topic)) {
+                byteCount -= entry.message.getPayload().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    private void remove(String topic) {
+        Entry previous = entries.remove(topic);
+        if (previous != null) {
+            byteCount -= previous.message.getPayload().length;
+        }
+    }
+
+    static final class Entry {
+        final String topic;
+        final MqttMessage message;
+
+        private Entry(String topic, MqttMessage message) {
+            this.topic = topic;
+            this.message = message;
+        }
+    }
+}
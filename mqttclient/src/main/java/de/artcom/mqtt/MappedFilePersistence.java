@@ -0,0 +1,471 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Persists in-flight QoS 1/2 state in memory-mapped, append-only segment files. Writes land in
+ * the page cache and survive a crash of the process without a write per message; pass
+ * {@code syncWrites} to also force every record to disk. Segments whose records have all been
+ * removed are deleted, and the oldest segment is compacted once most of it is garbage.
+ * <p>
+ * Paho clears the persistence when connecting with a clean session, so use it together with
+ * {@code cleanSession = false}.
+ */
+public class MappedFilePersistence implements MqttClientPersistence {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_PREFIX = 8;
+
+    // the oldest segment is compacted once less than this share of its records is still live
+    private static final double COMPACTION_THRESHOLD = 0.25;
+
+    private final File baseDirectory;
+    private final int segmentSize;
+    private final boolean syncWrites;
+
+    private File directory;
+    private final Map<String, Location> index = new HashMap<>();
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private final CRC32 crc = new CRC32();
+
+    public MappedFilePersistence(String directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    public MappedFilePersistence(String directory, int segmentSize, boolean syncWrites) {
+        this.baseDirectory = new File(directory);
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+    }
+
+    @Override
+    synchronized public void open(String clientId, String serverURI) throws MqttPersistenceException {
+        directory = new File(baseDirectory, sanitize(clientId + "-" + serverURI));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new MqttPersistenceException(new IOException("Cannot create directory " + directory));
+        }
+
+        try {
+            for (File file : listSegmentFiles()) {
+                Segment segment = Segment.open(file, parseSegmentNumber(file), 0);
+                segments.add(segment);
+                replay(segment);
+            }
+
+            if (segments.isEmpty()) {
+                newSegment(segmentSize);
+            }
+        } catch (IOException e) {
+            closeSegments();
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    synchronized public void close() throws MqttPersistenceException {
+        closeSegments();
+        index.clear();
+    }
+
+    @Override
+    synchronized public void put(String key, MqttPersistable persistable) throws MqttPersistenceException {
+        checkIsOpen();
+
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int headerLength = persistable.getHeaderLength();
+        int payloadLength = persistable.getPayloadBytes() == null ? 0 : persistable.getPayloadLength();
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + keyBytes.length + 4 + headerLength + 4 + payloadLength);
+        body.put(PUT).putShort((short) keyBytes.length).put(keyBytes);
+        body.putInt(headerLength).put(persistable.getHeaderBytes(), persistable.getHeaderOffset(), headerLength);
+        body.putInt(payloadLength);
+        if (payloadLength > 0) {
+            body.put(persistable.getPayloadBytes(), persistable.getPayloadOffset(), payloadLength);
+        }
+
+        try {
+            Location location = append(body.array());
+            release(index.put(key, location));
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    synchronized public MqttPersistable get(String key) throws MqttPersistenceException {
+        checkIsOpen();
+
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        ByteBuffer record = location.segment.read(location.offset + RECORD_PREFIX, location.length - RECORD_PREFIX);
+        record.get();
+        short keyLength = record.getShort();
+        record.position(record.position() + keyLength);
+
+        byte[] header = new byte[record.getInt()];
+        record.get(header);
+        byte[] payload = new byte[record.getInt()];
+        record.get(payload);
+
+        return new StoredPersistable(header, payload);
+    }
+
+    @Override
+    synchronized public void remove(String key) throws MqttPersistenceException {
+        checkIsOpen();
+
+        Location location = index.remove(key);
+        if (location == null) {
+            return;
+        }
+
+        byte[] keyBytes = key.getBytes(UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + keyBytes.length);
+        body.put(REMOVE).putShort((short) keyBytes.length).put(keyBytes);
+
+        try {
+            Location tombstone = append(body.array());
+            release(location);
+            release(tombstone);
+            compact();
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    synchronized public Enumeration keys() throws MqttPersistenceException {
+        checkIsOpen();
+        return Collections.enumeration(new ArrayList<>(index.keySet()));
+    }
+
+    @Override
+    synchronized public void clear() throws MqttPersistenceException {
+        checkIsOpen();
+
+        index.clear();
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+
+        try {
+            newSegment(segmentSize);
+        } catch (IOException e) {
+            throw new MqttPersistenceException(e);
+        }
+    }
+
+    @Override
+    synchronized public boolean containsKey(String key) throws MqttPersistenceException {
+        checkIsOpen();
+        return index.containsKey(key);
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private Location append(byte[] body) throws IOException {
+        int length = RECORD_PREFIX + body.length;
+        Segment active = segments.getLast();
+        if (active.remaining() < length) {
+            active.force();
+            active = newSegment(Math.max(segmentSize, length + RECORD_PREFIX));
+        }
+
+        crc.reset();
+        crc.update(body, 0, body.length);
+
+        int offset = active.append(body, (int) crc.getValue());
+        if (syncWrites) {
+            active.force();
+        }
+
+        active.liveBytes += length;
+        return new Location(active, offset, length);
+    }
+
+    // records are dead once overwritten or removed, tombstones are dead right away
+    private void release(Location location) {
+        if (location != null) {
+            location.segment.liveBytes -= location.length;
+        }
+    }
+
+    // only the oldest segment is compacted, so a dropped tombstone can never revive an older record
+    private void compact() throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.getFirst();
+            if (oldest.liveBytes > oldest.position * COMPACTION_THRESHOLD) {
+                return;
+            }
+
+            if (oldest.liveBytes > 0) {
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    if (location.segment == oldest) {
+                        ByteBuffer record = oldest.read(location.offset + RECORD_PREFIX, location.length - RECORD_PREFIX);
+                        byte[] body = new byte[record.remaining()];
+                        record.get(body);
+                        entry.setValue(append(body));
+                    }
+                }
+            }
+
+            segments.removeFirst().delete();
+        }
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(0);
+
+        int end = 0;
+        while (buffer.remaining() >= RECORD_PREFIX) {
+            int offset = buffer.position();
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+                break;
+            }
+
+            byte[] body = new byte[bodyLength];
+            buffer.get(body);
+
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                // a torn write at the end of the log
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            byte[] keyBytes = new byte[record.getShort()];
+            record.get(keyBytes);
+            String key = new String(keyBytes, UTF_8);
+
+            Location location = new Location(segment, offset, RECORD_PREFIX + bodyLength);
+            segment.liveBytes += location.length;
+            if (type == PUT) {
+                release(index.put(key, location));
+            } else {
+                release(index.remove(key));
+                release(location);
+            }
+
+            end = buffer.position();
+        }
+
+        segment.position = end;
+        if (segment.position < segment.buffer.capacity() - RECORD_PREFIX) {
+            // make sure a torn record is not mistaken for a valid one after the next append
+            segment.buffer.putInt(segment.position, 0);
+        }
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        int number = segments.isEmpty() ? 0 : segments.getLast().number + 1;
+        Segment segment = Segment.open(new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX), number, size);
+        segments.add(segment);
+        return segment;
+    }
+
+    private List<File> listSegmentFiles() {
+        File[] files = directory.listFiles();
+        List<File> result = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    result.add(file);
+                }
+            }
+        }
+
+        Collections.sort(result, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Integer.compare(parseSegmentNumber(first), parseSegmentNumber(second));
+            }
+        });
+
+        return result;
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private void checkIsOpen() throws MqttPersistenceException {
+        if (segments.isEmpty()) {
+            throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_EXCEPTION);
+        }
+    }
+
+    private static int parseSegmentNumber(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder result = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            result.append(Character.isLetterOrDigit(c) || c == '-' || c == '.' ? c : '_');
+        }
+
+        return result.toString();
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private int position;
+        private long liveBytes;
+
+        private Segment(int number, File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.randomAccessFile = randomAccessFile;
+            this.buffer = buffer;
+        }
+
+        // maps an existing file with its current size or creates one with the given size
+        static Segment open(File file, int number, int size) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                long length = file.length() > 0 ? file.length() : size;
+                MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                return new Segment(number, file, randomAccessFile, buffer);
+            } catch (IOException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - position - RECORD_PREFIX;
+        }
+
+        int append(byte[] body, int checksum) {
+            int offset = position;
+
+            // the length is written last, so a record is never visible before it is complete
+            buffer.putInt(offset + 4, checksum);
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset + RECORD_PREFIX);
+            target.put(body);
+            if (offset + RECORD_PREFIX + body.length + 4 <= buffer.capacity()) {
+                buffer.putInt(offset + RECORD_PREFIX + body.length, 0);
+            }
+            buffer.putInt(offset, body.length);
+
+            position += RECORD_PREFIX + body.length;
+            return offset;
+        }
+
+        ByteBuffer read(int offset, int length) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset);
+            record.limit(offset + length);
+            return record.slice();
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                randomAccessFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static final class StoredPersistable implements MqttPersistable {
+        private final byte[] header;
+        private final byte[] payload;
+
+        private StoredPersistable(byte[] header, byte[] payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
@@ -1,37 +1,89 @@
 package de.artcom.mqtt;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 public abstract class MessageCallback<T> implements IMessageCallback {
     private static final Logger LOG = Logger.getLogger(Client.class.getSimpleName());
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ConcurrentMap<Class<?>, Type> payloadTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, Boolean> rawMessageHandlers = new ConcurrentHashMap<>();
 
-    protected MessageCallback() {
-        objectMapper.setVisibility(objectMapper.getSerializationConfig().getDefaultVisibilityChecker()
-                .withFieldVisibility(JsonAutoDetect.Visibility.NONE)
-                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
-                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
-                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
-                .withCreatorVisibility(JsonAutoDetect.Visibility.PUBLIC_ONLY));
+    private final Codec codec;
+    private final Type payloadType;
+    private volatile Client client;
+    private PayloadReader reader;
+
+    public MessageCallback() {
+        this(null);
+    }
+
+    // decodes every message with the given codec instead of the one configured for its topic
+    public MessageCallback(Codec codec) {
+        this(codec, null);
+    }
+
+    // for callbacks whose payload type is not fixed by their class
+    MessageCallback(Codec codec, Type payloadType) {
+        this.codec = codec;
+        this.payloadType = payloadType;
     }
 
     public void onRawMessage(String topic, MqttMessage message) {
+        deliver(topic, message, null);
+    }
+
+    // payloads decoded for other callbacks of the same message are reused unless onRawMessage is overridden
+    void onSharedMessage(String topic, MqttMessage message, SharedPayloads payloads) {
+        if (handlesRawMessage(getClass())) {
+            onRawMessage(topic, message);
+        } else {
+            deliver(topic, message, payloads);
+        }
+    }
+
+    // null if the codec configured for the topic is used
+    Codec getCodec() {
+        return codec;
+    }
+
+    // set when subscribed through a client, which provides codecs and metrics
+    void setClient(Client client) {
+        this.client = client;
+    }
+
+    // resolves the payload type by reflection on subscribing instead of on the first message
+    void prepare() {
+        // others fail on their first message as before
+        if (payloadType == null && getClass().getGenericSuperclass() instanceof ParameterizedType) {
+            payloadType(getClass());
+        }
+
+        handlesRawMessage(getClass());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(String topic, MqttMessage message, SharedPayloads payloads) {
         if (message.getPayload().length == 0) {
             onEmptyMessage(topic, message);
         } else {
             try {
-                // retrieve the runtime class of T
-                Type arg = ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-                T payload = objectMapper.readValue(message.getPayload(), objectMapper.getTypeFactory().constructType(arg));
+                PayloadReader reader = getReader(topic);
+                T payload = (T) (payloads == null
+                        ? reader.read(message.getPayload())
+                        : payloads.read(reader));
                 onMessage(topic, payload, message);
             } catch (IOException error) {
+                Client client = this.client;
+                if (client != null) {
+                    client.parseError(topic);
+                }
+
                 onParseError(error, message);
             }
         }
@@ -48,4 +100,47 @@ public abstract class MessageCallback<T> implements IMessageCallback {
     public void onEmptyMessage(String topic, MqttMessage message) {
         LOG.info("Empty message for topic '" + topic + "' ignored");
     }
+
+    private PayloadReader getReader(String topic) {
+        Codec codec = this.codec;
+        if (codec == null) {
+            Client client = this.client;
+            codec = client == null ? Codec.JSON : client.codecFor(topic);
+        }
+
+        PayloadReader reader = this.reader;
+        if (reader == null || reader.codec != codec) {
+            reader = codec.readerFor(payloadType == null ? payloadType(getClass()) : payloadType);
+            this.reader = reader;
+        }
+
+        return reader;
+    }
+
+    private static Type payloadType(Class<?> callbackClass) {
+        Type type = payloadTypes.get(callbackClass);
+        if (type == null) {
+            // retrieve the runtime class of T
+            type = ((ParameterizedType) callbackClass.getGenericSuperclass()).getActualTypeArguments()[0];
+            payloadTypes.put(callbackClass, type);
+        }
+
+        return type;
+    }
+
+    private static boolean handlesRawMessage(Class<?> callbackClass) {
+        Boolean handlesRawMessage = rawMessageHandlers.get(callbackClass);
+        if (handlesRawMessage == null) {
+            try {
+                handlesRawMessage = callbackClass.getMethod("onRawMessage", String.class, MqttMessage.class)
+                        .getDeclaringClass() != MessageCallback.class;
+            } catch (NoSuchMethodException e) {
+                handlesRawMessage = true;
+            }
+
+            rawMessageHandlers.put(callbackClass, handlesRawMessage);
+        }
+
+        return handlesRawMessage;
+    }
 }
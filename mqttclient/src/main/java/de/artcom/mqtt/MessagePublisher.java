@@ -0,0 +1,262 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A Reactive Streams publisher of the decoded payloads of a topic filter. Every subscriber gets its
+ * own broker subscription, which is removed when it cancels. Messages are buffered up to a limit
+ * until the subscriber requests them, beyond that the overflow policy applies.
+ */
+public final class MessagePublisher<T> implements Publisher<T> {
+    private static final Logger LOG = Logger.getLogger(MessagePublisher.class.getSimpleName());
+
+    public enum OverflowPolicy {
+        // block the delivering thread, which eventually stops paho from reading the socket
+        PAUSE,
+        DROP_OLDEST,
+        // replace a buffered message of the same topic, otherwise drop the oldest
+        CONFLATE
+    }
+
+    private final Client client;
+    private final String topic;
+    private final Type payloadType;
+    private final int qos;
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong conflatedMessages = new AtomicLong();
+
+    MessagePublisher(Client client, String topic, Type payloadType, int qos, int bufferSize, OverflowPolicy overflowPolicy) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+
+        MqttMessage.validateQos(qos);
+        this.client = client;
+        this.topic = topic;
+        this.payloadType = payloadType;
+        this.qos = qos;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+
+        Emitter emitter = new Emitter(subscriber);
+        subscriber.onSubscribe(emitter);
+
+        if (!emitter.isCancelled()) {
+            try {
+                client.subscribe(topic, qos, emitter);
+            } catch (MqttException e) {
+                emitter.fail(e);
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedMessages.get();
+    }
+
+    public long getConflatedCount() {
+        return conflatedMessages.get();
+    }
+
+    private static final class Item<T> {
+        private final String topic;
+        private T payload;
+
+        private Item(String topic, T payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+    }
+
+    // decodes through MessageCallback and hands payloads to one subscriber as it requests them
+    private final class Emitter extends MessageCallback<T> implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final ArrayDeque<Item<T>> buffer = new ArrayDeque<>();
+        private final AtomicInteger drainers = new AtomicInteger();
+        private long requested;
+        private boolean isCancelled;
+        private Throwable error;
+
+        private Emitter(Subscriber<? super T> subscriber) {
+            super(null, payloadType);
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onMessage(String topic, T payload, MqttMessage message) {
+            synchronized (this) {
+                if (isCancelled) {
+                    return;
+                }
+
+                if (buffer.size() >= bufferSize && !makeRoom(topic, payload)) {
+                    return;
+                }
+
+                buffer.add(new Item<>(topic, payload));
+            }
+
+            drain();
+        }
+
+        @Override
+        public void onEmptyMessage(String topic, MqttMessage message) {
+            // there is no payload to emit, e.g. a retained message being cleared
+        }
+
+        // returns false if the payload was conflated into a buffered message instead
+        private boolean makeRoom(String topic, T payload) {
+            switch (overflowPolicy) {
+                case PAUSE:
+                    try {
+                        while (buffer.size() >= bufferSize && !isCancelled) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        droppedMessages.incrementAndGet();
+                        return false;
+                    }
+
+                    return !isCancelled;
+                case CONFLATE:
+                    for (Iterator<Item<T>> iterator = buffer.descendingIterator(); iterator.hasNext(); ) {
+                        Item<T> item = iterator.next();
+                        if (item.topic.equals(topic)) {
+                            item.payload = payload;
+                            conflatedMessages.incrementAndGet();
+                            return false;
+                        }
+                    }
+
+                    buffer.poll();
+                    droppedMessages.incrementAndGet();
+                    return true;
+                default:
+                    buffer.poll();
+                    droppedMessages.incrementAndGet();
+                    return true;
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (isCancelled) {
+                    return;
+                }
+
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Requested " + n + " messages, must be positive (Reactive Streams rule 3.9)");
+                } else {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                }
+            }
+
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (isCancelled) {
+                    return;
+                }
+
+                isCancelled = true;
+                buffer.clear();
+                notifyAll();
+            }
+
+            unsubscribeQuietly();
+        }
+
+        synchronized boolean isCancelled() {
+            return isCancelled;
+        }
+
+        void fail(Throwable cause) {
+            synchronized (this) {
+                error = cause;
+            }
+
+            drain();
+        }
+
+        // signals the subscriber from one thread at a time, whichever made progress possible
+        private void drain() {
+            if (drainers.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                while (true) {
+                    T payload = null;
+                    Throwable failure;
+                    synchronized (this) {
+                        if (isCancelled) {
+                            break;
+                        }
+
+                        failure = error;
+                        if (failure != null) {
+                            isCancelled = true;
+                            buffer.clear();
+                            notifyAll();
+                        } else if (requested == 0 || buffer.isEmpty()) {
+                            break;
+                        } else {
+                            payload = buffer.poll().payload;
+                            if (requested != Long.MAX_VALUE) {
+                                requested--;
+                            }
+
+                            // a paused delivery may continue
+                            notifyAll();
+                        }
+                    }
+
+                    if (failure != null) {
+                        unsubscribeQuietly();
+                        subscriber.onError(failure);
+                        break;
+                    }
+
+                    subscriber.onNext(payload);
+                }
+
+                missed = drainers.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void unsubscribeQuietly() {
+            try {
+                client.unsubscribe(topic, this);
+            } catch (MqttException e) {
+                LOG.severe("Error: " + e.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttToken;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Holds messages published while the client is disconnected and sends them once the connection
+ * is established again. Queued messages are sent in order, with at most a window of them
+ * awaiting completion at a time.
+ */
+public class OfflineBuffer {
+    private static final Logger LOG = Logger.getLogger(OfflineBuffer.class.getSimpleName());
+
+    public enum OverflowPolicy {
+        // fail the new publish with REASON_CODE_DISCONNECTED_BUFFER_FULL
+        REJECT,
+        DROP_OLDEST,
+        // drop a queued message of the same topic, otherwise the oldest
+        LATEST_PER_TOPIC
+    }
+
+    public interface Listener {
+        void onFillLevelChanged(int messageCount, long byteCount);
+    }
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final OverflowPolicy overflowPolicy;
+    private volatile Listener listener;
+
+    private final ArrayDeque<OfflinePublish> queue = new ArrayDeque<>();
+    private final Map<String, OfflinePublish> latestByTopic = new HashMap<>();
+    private long byteCount;
+    private int inFlight;
+
+    // keeps concurrent drains from reordering messages
+    private final Object drainLock = new Object();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public OfflineBuffer(int maxMessages, long maxBytes, OverflowPolicy overflowPolicy) {
+        if (maxMessages < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Message and byte limits must be positive");
+        }
+
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized public int size() {
+        return queue.size();
+    }
+
+    synchronized public long getByteCount() {
+        return byteCount;
+    }
+
+    synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    void add(String topic, byte[] payload, int qos, boolean retained, IMqttActionListener callback) throws MqttException {
+        MqttTopic.validate(topic, false);
+        MqttMessage.validateQos(qos);
+
+        OfflinePublish publish = new OfflinePublish(topic, payload, qos, retained, callback);
+        List<OfflinePublish> evicted = null;
+
+        synchronized (this) {
+            if (payload.length > maxBytes) {
+                throw new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL);
+            }
+
+            while (queue.size() >= maxMessages || byteCount + payload.length > maxBytes) {
+                if (overflowPolicy == OverflowPolicy.REJECT) {
+                    throw new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL);
+                }
+
+                OfflinePublish victim = overflowPolicy == OverflowPolicy.LATEST_PER_TOPIC
+                        ? latestByTopic.get(topic)
+                        : null;
+                if (victim == null) {
+                    victim = queue.peek();
+                }
+
+                remove(victim);
+                if (evicted == null) {
+                    evicted = new ArrayList<>();
+                }
+                evicted.add(victim);
+            }
+
+            queue.add(publish);
+            byteCount += payload.length;
+            if (overflowPolicy == OverflowPolicy.LATEST_PER_TOPIC) {
+                latestByTopic.put(topic, publish);
+            }
+        }
+
+        if (evicted != null) {
+            for (OfflinePublish victim : evicted) {
+                dropped.incrementAndGet();
+                victim.fail(new MqttException(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL));
+            }
+        }
+
+        fillLevelChanged();
+    }
+
+    // sends queued messages until the window is full, completions continue the drain. A message paho
+    // rejects because its own in-flight slots are taken waits for the next Client#deliveryComplete.
+    void drain(IMqttAsyncClient client, int window) {
+        int sent = 0;
+
+        synchronized (drainLock) {
+            while (true) {
+                OfflinePublish publish;
+                synchronized (this) {
+                    if (inFlight >= window || queue.isEmpty()) {
+                        break;
+                    }
+
+                    publish = queue.peek();
+                    remove(publish);
+                    inFlight++;
+                }
+
+                try {
+                    client.publish(publish.topic, publish.payload, publish.qos, publish.retained, null,
+                            new DrainListener(publish.callback, client, window));
+                    sent++;
+                } catch (MqttException e) {
+                    synchronized (this) {
+                        inFlight--;
+                    }
+
+                    if (isTransient(e)) {
+                        requeue(publish);
+                        break;
+                    }
+
+                    LOG.severe("Error: " + e.getLocalizedMessage());
+                    publish.fail(e);
+                }
+            }
+        }
+
+        if (sent > 0) {
+            fillLevelChanged();
+        }
+    }
+
+    private static boolean isTransient(MqttException e) {
+        switch (e.getReasonCode()) {
+            case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+            case MqttException.REASON_CODE_CLIENT_DISCONNECTING:
+            case MqttException.REASON_CODE_CONNECTION_LOST:
+            case MqttException.REASON_CODE_MAX_INFLIGHT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    synchronized private void requeue(OfflinePublish publish) {
+        // may briefly exceed the limits, the message was accepted before
+        queue.addFirst(publish);
+        byteCount += publish.payload.length;
+        if (overflowPolicy == OverflowPolicy.LATEST_PER_TOPIC && !latestByTopic.containsKey(publish.topic)) {
+            latestByTopic.put(publish.topic, publish);
+        }
+    }
+
+    private void remove(OfflinePublish publish) {
+        if (publish != queue.peek()) {
+            queue.remove(publish);
+        } else {
+            queue.poll();
+        }
+
+        byteCount -= publish.payload.length;
+        if (latestByTopic.get(publish.topic) == publish) {
+            latestByTopic.remove(publish.topic);
+        }
+    }
+
+    private void fillLevelChanged() {
+        Listener listener = this.listener;
+        if (listener != null) {
+            int messageCount;
+            long bytes;
+            synchronized (this) {
+                messageCount = queue.size();
+                bytes = byteCount;
+            }
+
+            listener.onFillLevelChanged(messageCount, bytes);
+        }
+    }
+
+    private static final class OfflinePublish {
+        private final String topic;
+        private final byte[] payload;
+        private final int qos;
+        private final boolean retained;
+        private final IMqttActionListener callback;
+
+        private OfflinePublish(String topic, byte[] payload, int qos, boolean retained, IMqttActionListener callback) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+            this.callback = callback;
+        }
+
+        void fail(MqttException cause) {
+            if (callback != null) {
+                callback.onFailure(new MqttToken(OfflineBuffer.class.getSimpleName()), cause);
+            }
+        }
+    }
+
+    private final class DrainListener implements IMqttActionListener {
+        private final IMqttActionListener callback;
+        private final IMqttAsyncClient client;
+        private final int window;
+
+        private DrainListener(IMqttActionListener callback, IMqttAsyncClient client, int window) {
+            this.callback = callback;
+            this.client = client;
+            this.window = window;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken token) {
+            release();
+            if (callback != null) {
+                callback.onSuccess(token);
+            }
+
+            continueDrain();
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable cause) {
+            release();
+            if (callback != null) {
+                callback.onFailure(token, cause);
+            }
+
+            continueDrain();
+        }
+
+        private void release() {
+            synchronized (OfflineBuffer.this) {
+                inFlight--;
+            }
+        }
+
+        private void continueDrain() {
+            if (client.isConnected()) {
+                drain(client, window);
+            }
+        }
+    }
+}
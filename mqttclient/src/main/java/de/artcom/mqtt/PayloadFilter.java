@@ -0,0 +1,150 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A cheap check on the raw payload that runs before a callback decodes it, set with
+ * {@link SubscriptionOptions#setFilter}. Field checks read the payload with a streaming parser and
+ * stop as soon as the field is found, skipping everything else without binding it. Payloads that
+ * cannot be parsed pass, so the callback reports them as usual.
+ */
+public abstract class PayloadFilter {
+    // a value at the JSON pointer, e.g. "/deviceId", equal to a string, number, boolean or null
+    public static PayloadFilter equalTo(String jsonPointer, final Object value) {
+        if (value != null && !(value instanceof String || value instanceof Boolean || value instanceof Number)) {
+            throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+        }
+
+        return new FieldFilter(jsonPointer) {
+            @Override
+            boolean accept(JsonParser parser, JsonToken token) throws IOException {
+                if (value == null) {
+                    return token == JsonToken.VALUE_NULL;
+                } else if (value instanceof String) {
+                    return token == JsonToken.VALUE_STRING && value.equals(parser.getText());
+                } else if (value instanceof Boolean) {
+                    return token == ((Boolean) value ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE);
+                } else if (value instanceof Float || value instanceof Double) {
+                    return token.isNumeric() && parser.getDoubleValue() == ((Number) value).doubleValue();
+                } else {
+                    return token == JsonToken.VALUE_NUMBER_INT && parser.getLongValue() == ((Number) value).longValue();
+                }
+            }
+        };
+    }
+
+    // a number at the JSON pointer within the inclusive range
+    public static PayloadFilter between(String jsonPointer, final double min, final double max) {
+        return new FieldFilter(jsonPointer) {
+            @Override
+            boolean accept(JsonParser parser, JsonToken token) throws IOException {
+                if (!token.isNumeric()) {
+                    return false;
+                }
+
+                double value = parser.getDoubleValue();
+                return value >= min && value <= max;
+            }
+        };
+    }
+
+    public static PayloadFilter maxSize(final int bytes) {
+        return new PayloadFilter() {
+            @Override
+            boolean accept(JsonFactory factory, byte[] payload) {
+                return payload.length <= bytes;
+            }
+        };
+    }
+
+    public static PayloadFilter allOf(PayloadFilter... filters) {
+        final List<PayloadFilter> all = Arrays.asList(filters.clone());
+        return new PayloadFilter() {
+            @Override
+            boolean accept(JsonFactory factory, byte[] payload) throws IOException {
+                for (PayloadFilter filter : all) {
+                    if (!filter.accept(factory, payload)) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        };
+    }
+
+    abstract boolean accept(JsonFactory factory, byte[] payload) throws IOException;
+
+    private abstract static class FieldFilter extends PayloadFilter {
+        private final JsonPointer pointer;
+
+        FieldFilter(String jsonPointer) {
+            pointer = JsonPointer.compile(jsonPointer);
+        }
+
+        @Override
+        final boolean accept(JsonFactory factory, byte[] payload) throws IOException {
+            try (JsonParser parser = factory.createParser(payload)) {
+                JsonToken token = find(parser, pointer);
+                return token != null && accept(parser, token);
+            }
+        }
+
+        // the parser is positioned on the value
+        abstract boolean accept(JsonParser parser, JsonToken token) throws IOException;
+
+        // advances to the value at the pointer, returns null if there is none
+        private static JsonToken find(JsonParser parser, JsonPointer pointer) throws IOException {
+            JsonToken token = parser.nextToken();
+            while (!pointer.matches()) {
+                if (token == JsonToken.START_OBJECT) {
+                    String property = pointer.getMatchingProperty();
+                    while (true) {
+                        if (parser.nextToken() != JsonToken.FIELD_NAME) {
+                            return null;
+                        }
+
+                        boolean isMatch = property.equals(parser.getCurrentName());
+                        token = parser.nextToken();
+                        if (isMatch) {
+                            break;
+                        }
+
+                        parser.skipChildren();
+                    }
+                } else if (token == JsonToken.START_ARRAY) {
+                    int index = pointer.getMatchingIndex();
+                    if (index < 0) {
+                        return null;
+                    }
+
+                    for (int i = 0; ; i++) {
+                        token = parser.nextToken();
+                        if (token == null || token == JsonToken.END_ARRAY) {
+                            return null;
+                        }
+
+                        if (i == index) {
+                            break;
+                        }
+
+                        parser.skipChildren();
+                    }
+                } else {
+                    return null;
+                }
+
+                pointer = pointer.tail();
+            }
+
+            return token;
+        }
+    }
+}
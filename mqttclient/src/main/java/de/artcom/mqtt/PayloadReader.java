@@ -0,0 +1,49 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+abstract class PayloadReader {
+    final Codec codec;
+
+    PayloadReader(Codec codec) {
+        this.codec = codec;
+    }
+
+    abstract Object read(byte[] payload) throws IOException;
+
+    static ObjectMapper newMapper(JsonFactory factory) {
+        ObjectMapper objectMapper = new ObjectMapper(factory);
+        objectMapper.setVisibility(objectMapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.NONE)
+                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withCreatorVisibility(JsonAutoDetect.Visibility.PUBLIC_ONLY));
+        return objectMapper;
+    }
+
+    static PayloadReader forType(Codec codec, final ObjectMapper objectMapper, Type type) {
+        if (type == JsonPayload.class) {
+            return new PayloadReader(codec) {
+                @Override
+                Object read(byte[] payload) {
+                    return new JsonPayload(payload, objectMapper);
+                }
+            };
+        }
+
+        final ObjectReader reader = objectMapper.readerFor(objectMapper.getTypeFactory().constructType(type));
+        return new PayloadReader(codec) {
+            @Override
+            Object read(byte[] payload) throws IOException {
+                return reader.readValue(payload);
+            }
+        };
+    }
+}
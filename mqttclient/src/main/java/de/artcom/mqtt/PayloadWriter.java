@@ -0,0 +1,116 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Serializes payloads into a per-thread buffer that is reused across publishes, so each message
+// costs a single exactly sized copy. Paho keeps the published array until the message is
+// acknowledged, which is why the buffer itself cannot be handed over.
+final class PayloadWriter {
+    static final int INITIAL_BUFFER_SIZE = 512;
+    // larger buffers are released after use instead of being kept by the thread
+    static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    PayloadWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    static ObjectMapper newMapper(JsonFactory factory) {
+        ObjectMapper objectMapper = new ObjectMapper(factory);
+        objectMapper.setVisibility(objectMapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
+                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withSetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withCreatorVisibility(JsonAutoDetect.Visibility.NONE));
+        return objectMapper;
+    }
+
+    byte[] write(Object payload) throws JsonProcessingException {
+        if (payload == null) {
+            return objectMapper.writeValueAsBytes(null);
+        }
+
+        Buffer buffer = buffers.get();
+        try {
+            writerFor(payload.getClass()).writeValue(buffer, payload);
+            return buffer.toByteArray();
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw JsonMappingException.fromUnexpectedIOE(e);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    // builds the serializer ahead of the first payload of the class
+    void prepare(Class<?> payloadClass) {
+        writerFor(payloadClass);
+    }
+
+    private ObjectWriter writerFor(Class<?> payloadClass) {
+        ObjectWriter writer = writers.get(payloadClass);
+        if (writer == null) {
+            writer = objectMapper.writerFor(payloadClass);
+            writers.put(payloadClass, writer);
+        }
+
+        return writer;
+    }
+
+    // unsynchronized alternative to ByteArrayOutputStream, only used by its owning thread
+    private static final class Buffer extends OutputStream {
+        private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) {
+            ensureCapacity(count + length);
+            System.arraycopy(source, offset, bytes, count, length);
+            count += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+
+        void reset() {
+            count = 0;
+            if (bytes.length > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length << 1));
+            }
+        }
+    }
+}
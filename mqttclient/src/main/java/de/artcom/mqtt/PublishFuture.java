@@ -0,0 +1,199 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of {@link Client#publishAsync}. It completes with the delivery token once the
+ * broker acknowledged the message (or it was sent, for QoS 0). Listeners added after completion
+ * are notified immediately on the calling thread.
+ */
+public class PublishFuture implements Future<IMqttDeliveryToken> {
+    final String topic;
+    final MqttMessage message;
+    long sentNanos;
+
+    private final PublishWindow window;
+    private List<IMqttActionListener> listeners;
+    private boolean isDone;
+    private boolean isCancelled;
+    private IMqttDeliveryToken token;
+    private IMqttToken failedToken;
+    private Throwable failure;
+
+    PublishFuture(PublishWindow window, String topic, MqttMessage message) {
+        this.window = window;
+        this.topic = topic;
+        this.message = message;
+    }
+
+    public void addListener(IMqttActionListener listener) {
+        synchronized (this) {
+            if (!isDone) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>(1);
+                }
+
+                listeners.add(listener);
+                return;
+            }
+        }
+
+        notifyListener(listener);
+    }
+
+    // only messages still waiting for the window can be cancelled
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!window.cancel(this)) {
+            return false;
+        }
+
+        List<IMqttActionListener> toNotify;
+        synchronized (this) {
+            isCancelled = true;
+            toNotify = finish();
+        }
+
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    @Override
+    synchronized public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    @Override
+    synchronized public boolean isDone() {
+        return isDone;
+    }
+
+    @Override
+    synchronized public IMqttDeliveryToken get() throws InterruptedException, ExecutionException {
+        while (!isDone) {
+            wait();
+        }
+
+        return result();
+    }
+
+    @Override
+    synchronized public IMqttDeliveryToken get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        return result();
+    }
+
+    boolean complete(IMqttDeliveryToken token) {
+        List<IMqttActionListener> toNotify;
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+
+            this.token = token;
+            toNotify = finish();
+        }
+
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    boolean fail(IMqttToken token, Throwable cause) {
+        List<IMqttActionListener> toNotify;
+        synchronized (this) {
+            if (isDone) {
+                return false;
+            }
+
+            failedToken = token;
+            failure = cause;
+            toNotify = finish();
+        }
+
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    // for messages sent by the offline buffer instead of the window
+    IMqttActionListener completionListener() {
+        return new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken token) {
+                complete((IMqttDeliveryToken) token);
+            }
+
+            @Override
+            public void onFailure(IMqttToken token, Throwable cause) {
+                fail(token, cause);
+            }
+        };
+    }
+
+    private List<IMqttActionListener> finish() {
+        isDone = true;
+        notifyAll();
+
+        List<IMqttActionListener> toNotify = listeners;
+        listeners = null;
+        return toNotify;
+    }
+
+    private IMqttDeliveryToken result() throws ExecutionException {
+        if (isCancelled) {
+            throw new CancellationException();
+        }
+
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+
+        return token;
+    }
+
+    private void notifyListeners(List<IMqttActionListener> toNotify) {
+        if (toNotify != null) {
+            for (IMqttActionListener listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(IMqttActionListener listener) {
+        IMqttDeliveryToken token;
+        IMqttToken failedToken;
+        Throwable failure;
+        synchronized (this) {
+            token = this.token;
+            failedToken = this.failedToken;
+            failure = isCancelled ? new CancellationException() : this.failure;
+        }
+
+        if (token != null) {
+            listener.onSuccess(token);
+        } else {
+            // messages that were never sent have no paho token
+            listener.onFailure(failedToken != null ? failedToken : new MqttToken(PublishFuture.class.getSimpleName()), failure);
+        }
+    }
+}
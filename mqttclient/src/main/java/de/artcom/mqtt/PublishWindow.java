@@ -0,0 +1,265 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+
+import java.util.ArrayDeque;
+
+// Limits the number of asynchronous publishes awaiting completion. Publishes beyond the window
+// wait in order and are sent as earlier ones are acknowledged. Beyond the waiting limit the caller
+// blocks until there is room, or the publish fails if blocking is off, so a producer outrunning
+// the broker is pushed back instead of filling the heap.
+final class PublishWindow {
+    static final int DEFAULT_WAITING_LIMIT = 10000;
+
+    private final IMqttAsyncClient client;
+    private final ArrayDeque<PublishFuture> waiting = new ArrayDeque<>();
+    private int size;
+    private int waitingLimit = DEFAULT_WAITING_LIMIT;
+    private boolean isBlocking;
+    private int inFlight;
+
+    // takes over messages while disconnected, like it does for Client#publish
+    private volatile OfflineBuffer offlineBuffer;
+
+    // paho 1.2.0 stores QoS 0 tokens under message id 0 and skips queued messages whose token is
+    // gone, so only one QoS 0 message may be queued in paho at a time
+    private boolean isQos0InFlight;
+
+    private long ackCount;
+    private long totalAckNanos;
+    private long maxAckNanos;
+
+    // keeps concurrent sends from reordering messages
+    private final Object sendLock = new Object();
+
+    private final IMqttActionListener failureListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken token) {
+            // completed through deliveryComplete
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable cause) {
+            Object context = token.getUserContext();
+            if (context instanceof PublishFuture && ((PublishFuture) context).fail(token, cause)) {
+                release((PublishFuture) context);
+            }
+
+            send();
+        }
+    };
+
+    PublishWindow(IMqttAsyncClient client, int size) {
+        this.client = client;
+        setSize(size);
+    }
+
+    PublishFuture publish(String topic, MqttMessage message) {
+        MqttTopic.validate(topic, false);
+
+        PublishFuture future = new PublishFuture(this, topic, message);
+        MqttException rejection = null;
+        synchronized (this) {
+            try {
+                while (isBlocking && waiting.size() >= waitingLimit) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejection = new MqttException(e);
+            }
+
+            if (rejection == null && waiting.size() >= waitingLimit) {
+                rejection = new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+            }
+
+            if (rejection == null) {
+                waiting.add(future);
+            }
+        }
+
+        if (rejection != null) {
+            future.fail(null, rejection);
+            return future;
+        }
+
+        send();
+        return future;
+    }
+
+    // returns the future completed by the token, if any
+    PublishFuture deliveryComplete(IMqttDeliveryToken token) {
+        PublishFuture completed = null;
+        Object context = token.getUserContext();
+        if (context instanceof PublishFuture) {
+            PublishFuture future = (PublishFuture) context;
+            if (future.complete(token)) {
+                long latency = System.nanoTime() - future.sentNanos;
+                synchronized (this) {
+                    release(future);
+                    ackCount++;
+                    totalAckNanos += latency;
+                    maxAckNanos = Math.max(maxAckNanos, latency);
+                }
+
+                completed = future;
+            }
+        }
+
+        // also retries publishes rejected while other messages occupied paho's in-flight slots
+        send();
+        return completed;
+    }
+
+    void send() {
+        synchronized (sendLock) {
+            while (true) {
+                // queued behind messages of the offline buffer to preserve the order
+                OfflineBuffer buffer = offlineBuffer;
+                if (buffer != null && (!client.isConnected() || !buffer.isEmpty())) {
+                    PublishFuture future;
+                    synchronized (this) {
+                        future = waiting.poll();
+                        notifyAll();
+                    }
+
+                    if (future == null) {
+                        return;
+                    }
+
+                    handOver(buffer, future);
+                    continue;
+                }
+
+                PublishFuture future;
+                synchronized (this) {
+                    future = waiting.peek();
+                    if (inFlight >= size || future == null || isQos0(future) && isQos0InFlight) {
+                        return;
+                    }
+
+                    waiting.remove();
+                    notifyAll();
+                    inFlight++;
+                    isQos0InFlight |= isQos0(future);
+                }
+
+                future.sentNanos = System.nanoTime();
+                try {
+                    client.publish(future.topic, future.message, future, failureListener);
+                } catch (MqttException e) {
+                    synchronized (this) {
+                        release(future);
+                        if (e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+                            waiting.addFirst(future);
+                            return;
+                        }
+                    }
+
+                    if (buffer != null && isDisconnected(e)) {
+                        handOver(buffer, future);
+                    } else {
+                        future.fail(null, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isDisconnected(MqttException e) {
+        switch (e.getReasonCode()) {
+            case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+            case MqttException.REASON_CODE_CLIENT_DISCONNECTING:
+            case MqttException.REASON_CODE_CONNECTION_LOST:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // the buffer completes the future, which can no longer be cancelled
+    private static void handOver(OfflineBuffer buffer, PublishFuture future) {
+        future.sentNanos = System.nanoTime();
+        try {
+            buffer.add(future.topic, future.message.getPayload(), future.message.getQos(),
+                    future.message.isRetained(), future.completionListener());
+        } catch (MqttException e) {
+            future.fail(null, e);
+        }
+    }
+
+    void setOfflineBuffer(OfflineBuffer buffer) {
+        offlineBuffer = buffer;
+    }
+
+    void setWaitingLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Waiting limit must be positive");
+        }
+
+        synchronized (this) {
+            waitingLimit = limit;
+            notifyAll();
+        }
+    }
+
+    synchronized void setBlocking(boolean blocking) {
+        isBlocking = blocking;
+        notifyAll();
+    }
+
+    synchronized boolean cancel(PublishFuture future) {
+        boolean isRemoved = waiting.remove(future);
+        notifyAll();
+        return isRemoved;
+    }
+
+    void setSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Publish window must be positive");
+        }
+
+        synchronized (this) {
+            this.size = size;
+        }
+
+        send();
+    }
+
+    synchronized int getSize() {
+        return size;
+    }
+
+    synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    synchronized long getAverageAckNanos() {
+        return ackCount == 0 ? 0 : totalAckNanos / ackCount;
+    }
+
+    synchronized long getMaxAckNanos() {
+        return maxAckNanos;
+    }
+
+    private synchronized void release(PublishFuture future) {
+        inFlight--;
+        if (isQos0(future)) {
+            isQos0InFlight = false;
+        }
+    }
+
+    private static boolean isQos0(PublishFuture future) {
+        return future.message.getQos() == 0;
+    }
+}
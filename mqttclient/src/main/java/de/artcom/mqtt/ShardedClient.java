@@ -0,0 +1,282 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.TimerPingSender;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spreads subscriptions and publishes over several broker connections, each with its own paho
+ * receive thread. A topic filter or publish topic always uses the same shard, chosen by its hash,
+ * so messages keep their order per topic. The connection callback sees the shards as one
+ * connection: it is connected once all shards are, and a shard that reconnects makes the others
+ * retry immediately instead of waiting out their backoff.
+ */
+public class ShardedClient {
+    private static final int DEFAULT_KEEPALIVE_SECONDS = 2;
+
+    private final List<Client> shards;
+    private final ConnectionCallback connectionCallback;
+
+    private final boolean[] shardConnected;
+    private int connectedCount;
+    private boolean hasConnected;
+
+    public ShardedClient(String tcpBrokerUri, String applicationId, String deviceId, int shardCount, ConnectionCallback callback) throws MqttException {
+        this(tcpBrokerUri, applicationId, deviceId, shardCount, callback, DEFAULT_KEEPALIVE_SECONDS, true);
+    }
+
+    // shard client ids share one generated id and end in "-s<index>"
+    public ShardedClient(String tcpBrokerUri, String applicationId, String deviceId, int shardCount, ConnectionCallback callback, int keepAlive, boolean cleanSession) throws MqttException {
+        this(createPahoClients(tcpBrokerUri, ClientId.generate(applicationId, deviceId), shardCount), callback, keepAlive, cleanSession);
+    }
+
+    // for tests without a broker
+    ShardedClient(List<? extends IMqttAsyncClient> pahoClients, ConnectionCallback callback, int keepAlive, boolean cleanSession) {
+        if (pahoClients.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+
+        connectionCallback = callback;
+        shardConnected = new boolean[pahoClients.size()];
+
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < pahoClients.size(); i++) {
+            clients.add(new Client(pahoClients.get(i), new ShardCallback(i), keepAlive, cleanSession));
+        }
+
+        shards = Collections.unmodifiableList(clients);
+    }
+
+    private static List<IMqttAsyncClient> createPahoClients(String tcpBrokerUri, String mqttClientId, int shardCount) throws MqttException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+
+        List<IMqttAsyncClient> clients = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            clients.add(new MqttAsyncClient(tcpBrokerUri, mqttClientId + "-s" + i, new MemoryPersistence(), new TimerPingSender()));
+        }
+
+        return clients;
+    }
+
+    public void connect() {
+        for (Client shard : shards) {
+            shard.connect();
+        }
+    }
+
+    // disconnects every shard, the first failure is rethrown afterwards
+    public void disconnect() throws MqttException {
+        MqttException failure = null;
+        for (Client shard : shards) {
+            try {
+                shard.disconnect();
+            } catch (MqttException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void subscribe(final String topic, final IMessageCallback callback) throws MqttException {
+        shardFor(topic).subscribe(topic, callback);
+    }
+
+    public void subscribe(final String topic, final int qos, final IMessageCallback callback) throws MqttException {
+        shardFor(topic).subscribe(topic, qos, callback);
+    }
+
+    public void subscribe(final String topic, final IMessageCallback callback, final SubscriptionOptions options) throws MqttException {
+        shardFor(topic).subscribe(topic, callback, options);
+    }
+
+    public <T> MessagePublisher<T> subscribe(final String topic, final Class<T> payloadType, final int qos, final int bufferSize, final MessagePublisher.OverflowPolicy overflowPolicy) {
+        return shardFor(topic).subscribe(topic, payloadType, qos, bufferSize, overflowPolicy);
+    }
+
+    public void unsubscribe(final String topic, final IMessageCallback callback) throws MqttException {
+        shardFor(topic).unsubscribe(topic, callback);
+    }
+
+    public void publish(final String topic, final Object payload, final int qos, final boolean retained, IMqttActionListener callback) throws MqttException, JsonProcessingException {
+        shardFor(topic).publish(topic, payload, qos, retained, callback);
+    }
+
+    public void publish(final String topic, final ByteBuffer payload, final int qos, final boolean retained, IMqttActionListener callback) throws MqttException {
+        shardFor(topic).publish(topic, payload, qos, retained, callback);
+    }
+
+    public void publish(final String topic, final byte[] payload, final int qos, final boolean retained, IMqttActionListener callback) throws MqttException {
+        shardFor(topic).publish(topic, payload, qos, retained, callback);
+    }
+
+    public PublishFuture publishAsync(final String topic, final Object payload, final int qos, final boolean retained) throws JsonProcessingException {
+        return shardFor(topic).publishAsync(topic, payload, qos, retained);
+    }
+
+    public PublishFuture publishAsync(final String topic, final byte[] payload, final int qos, final boolean retained) {
+        return shardFor(topic).publishAsync(topic, payload, qos, retained);
+    }
+
+    public void setMetrics(ClientMetrics metrics, String... topicFilters) {
+        for (Client shard : shards) {
+            shard.setMetrics(metrics, topicFilters);
+        }
+    }
+
+    public void setCodec(final String topicFilter, final Codec codec) {
+        for (Client shard : shards) {
+            shard.setCodec(topicFilter, codec);
+        }
+    }
+
+    public void registerPayloadType(Type payloadType) {
+        for (Client shard : shards) {
+            shard.registerPayloadType(payloadType);
+        }
+    }
+
+    // the JIT is shared, so only the first shard runs the warm-up
+    public void registerPayloadType(Type payloadType, Object sample, int warmupRuns) {
+        shards.get(0).registerPayloadType(payloadType, sample, warmupRuns);
+        for (int i = 1; i < shards.size(); i++) {
+            shards.get(i).registerPayloadType(payloadType);
+        }
+    }
+
+    public void setSharedPayloadDecoding(boolean enabled) {
+        for (Client shard : shards) {
+            shard.setSharedPayloadDecoding(enabled);
+        }
+    }
+
+    // one dispatcher can serve all shards, its stripes are chosen by topic or subscription
+    public void setDispatcher(Dispatcher dispatcher) {
+        for (Client shard : shards) {
+            shard.setDispatcher(dispatcher);
+        }
+    }
+
+    // the window applies to each shard
+    public void setPublishWindow(int size) {
+        for (Client shard : shards) {
+            shard.setPublishWindow(size);
+        }
+    }
+
+    // the limit applies to each shard
+    public void setWaitingPublishLimit(int limit) {
+        for (Client shard : shards) {
+            shard.setWaitingPublishLimit(limit);
+        }
+    }
+
+    public void setBlockingPublish(boolean blocking) {
+        for (Client shard : shards) {
+            shard.setBlockingPublish(blocking);
+        }
+    }
+
+    public synchronized boolean isConnected() {
+        return connectedCount == shards.size();
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    // the shards for settings without a sharded counterpart, e.g. an offline buffer per shard
+    public List<Client> getShards() {
+        return shards;
+    }
+
+    public Client shardFor(String topic) {
+        return shards.get((topic.hashCode() & Integer.MAX_VALUE) % shards.size());
+    }
+
+    private void shardConnected(int index) {
+        boolean isFirstConnect = false;
+        boolean isComplete;
+        synchronized (this) {
+            if (shardConnected[index]) {
+                return;
+            }
+
+            shardConnected[index] = true;
+            connectedCount++;
+            isComplete = connectedCount == shards.size();
+            if (isComplete && !hasConnected) {
+                hasConnected = true;
+                isFirstConnect = true;
+            }
+        }
+
+        // the broker is reachable again, so the others need not wait for their next attempt
+        for (int i = 0; i < shards.size(); i++) {
+            if (i != index && !shards.get(i).isConnected()) {
+                shards.get(i).connect();
+            }
+        }
+
+        if (isFirstConnect) {
+            connectionCallback.onConnect();
+        } else if (isComplete) {
+            connectionCallback.onReconnect();
+        }
+    }
+
+    private void shardDisconnected(int index, Throwable cause) {
+        boolean isReported;
+        synchronized (this) {
+            // only the first shard to drop is reported, and failed attempts while never connected
+            isReported = connectedCount == shards.size() || !hasConnected;
+            if (shardConnected[index]) {
+                shardConnected[index] = false;
+                connectedCount--;
+            }
+        }
+
+        if (isReported) {
+            connectionCallback.onDisconnect(cause);
+        }
+    }
+
+    private final class ShardCallback implements ConnectionCallback {
+        private final int index;
+
+        private ShardCallback(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onConnect() {
+            shardConnected(index);
+        }
+
+        @Override
+        public void onReconnect() {
+            shardConnected(index);
+        }
+
+        @Override
+        public void onDisconnect(Throwable cause) {
+            shardDisconnected(index, cause);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Decoded payloads of a single message, so callbacks expecting the same type share one parse.
+final class SharedPayloads {
+    private final byte[] payload;
+
+    private PayloadReader[] readers = new PayloadReader[2];
+    private Object[] results = new Object[2];
+    private int size;
+
+    SharedPayloads(byte[] payload) {
+        this.payload = payload;
+    }
+
+    // MessageCallbacks, also behind a filter, decode through the shared payloads
+    static void deliver(IMessageCallback callback, String topic, MqttMessage message, SharedPayloads payloads) {
+        if (callback instanceof MessageCallback) {
+            ((MessageCallback<?>) callback).onSharedMessage(topic, message, payloads);
+        } else if (callback instanceof FilteringCallback) {
+            ((FilteringCallback) callback).onSharedMessage(topic, message, payloads);
+        } else {
+            callback.onRawMessage(topic, message);
+        }
+    }
+
+    synchronized Object read(PayloadReader reader) throws IOException {
+        for (int i = 0; i < size; i++) {
+            if (readers[i] == reader) {
+                return unwrap(results[i]);
+            }
+        }
+
+        Object result;
+        try {
+            result = reader.read(payload);
+        } catch (IOException error) {
+            result = error;
+        }
+
+        if (size == readers.length) {
+            readers = Arrays.copyOf(readers, size * 2);
+            results = Arrays.copyOf(results, size * 2);
+        }
+
+        readers[size] = reader;
+        results[size] = result;
+        size++;
+
+        return unwrap(result);
+    }
+
+    private static Object unwrap(Object result) throws IOException {
+        if (result instanceof IOException) {
+            throw (IOException) result;
+        }
+
+        return result;
+    }
+}
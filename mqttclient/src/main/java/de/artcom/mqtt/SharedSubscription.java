@@ -0,0 +1,47 @@
+package de.artcom.mqtt;
+
+/**
+ * Shared subscriptions of the form {@code $share/<group>/<filter>}. The broker delivers each
+ * matching message to only one client subscribed with the same group and filter. Messages arrive
+ * with their concrete topic, so they are routed locally by the filter after the group, which
+ * therefore cannot also be subscribed plainly or in another group.
+ */
+public final class SharedSubscription {
+    static final String PREFIX = "$share/";
+
+    private SharedSubscription() {
+    }
+
+    public static String filter(String group, String topicFilter) {
+        if (group.contains("/") || !isValidGroup(group)) {
+            throw new IllegalArgumentException("Invalid share group '" + group + "'");
+        }
+
+        return PREFIX + group + "/" + topicFilter;
+    }
+
+    static boolean isShared(String filter) {
+        return filter.startsWith(PREFIX);
+    }
+
+    // the filter that incoming topics are matched against
+    static String routingFilter(String filter) {
+        if (!isShared(filter)) {
+            return filter;
+        }
+
+        int separator = filter.indexOf('/', PREFIX.length());
+        if (separator == -1 || separator == filter.length() - 1
+                || !isValidGroup(filter.substring(PREFIX.length(), separator))) {
+            throw new IllegalArgumentException("Invalid shared subscription '" + filter + "'");
+        }
+
+        return filter.substring(separator + 1);
+    }
+
+    private static boolean isValidGroup(String group) {
+        return !group.isEmpty()
+                && !group.contains(TopicTree.SINGLE_LEVEL_WILDCARD)
+                && !group.contains(TopicTree.MULTI_LEVEL_WILDCARD);
+    }
+}
@@ -2,112 +2,376 @@ package de.artcom.mqtt;
 
 import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 class SubscriptionHandler {
+    private static final Logger LOG = Logger.getLogger(SubscriptionHandler.class.getSimpleName());
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+    static final int DEFAULT_QOS = 2;
+
     private final IMqttAsyncClient client;
-    private final Map<String, List<IMessageCallback>> subscriptions = new HashMap<>();
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+
+    // shared subscription filters by the filter their messages are routed with
+    private final Map<String, String> sharedFilters = new HashMap<>();
+    private volatile TopicTree topicTree = TopicTree.EMPTY;
+    private final TopicCache topicCache;
 
     private final Set<String> topicsToUnsubscribe = new HashSet<>();
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private ScheduledExecutorService coalescingScheduler;
+    private long coalescingWindow;
+    private ScheduledFuture<?> flushFuture;
+    private final Set<String> pendingSubscribes = new LinkedHashSet<>();
+    private volatile ClientMetrics metrics = ClientMetrics.NONE;
+
     SubscriptionHandler(IMqttAsyncClient client) {
+        this(client, TopicCache.DEFAULT_CAPACITY);
+    }
+
+    SubscriptionHandler(IMqttAsyncClient client, int topicCacheSize) {
         this.client = client;
+        this.topicCache = new TopicCache(topicCacheSize);
     }
 
     void subscribe(final String topic, final IMessageCallback callback) throws MqttException {
+        subscribe(topic, callback, DEFAULT_QOS);
+    }
+
+    void subscribe(final String topic, final IMessageCallback callback, final int qos) throws MqttException {
+        MqttMessage.validateQos(qos);
+        String routingFilter = SharedSubscription.routingFilter(topic);
+
         synchronized (subscriptions) {
-            List<IMessageCallback> callbacks = subscriptions.get(topic);
-            if (callbacks == null) {
-                callbacks = new ArrayList<>();
-                subscriptions.put(topic, callbacks);
+            Subscription subscription = subscriptions.get(topic);
+            if (subscription == null) {
+                checkRoutingFilterUnused(topic, routingFilter);
 
-                if (client.isConnected()) {
-                    client.subscribe(topic, 2);
+                subscription = new Subscription();
+                subscriptions.put(topic, subscription);
+                topicsToUnsubscribe.remove(topic);
+                metrics.subscriptionCountChanged(subscriptions.size());
+
+                if (SharedSubscription.isShared(topic)) {
+                    sharedFilters.put(routingFilter, topic);
                 }
             }
 
-            callbacks.add(callback);
+            subscription.add(callback, qos);
+            updateRoute(routingFilter);
+
+            // a new filter or a callback requesting a higher QoS than the broker grants
+            if (subscription.getQos() != subscription.subscribedQos) {
+                requestSubscribe(topic, subscription);
+            }
         }
     }
 
-    void unsubscribe(final String topic, final IMessageCallback callback) throws MqttException {
+    // returns the removed callback, which is a wrapper if the callback was subscribed with options
+    IMessageCallback unsubscribe(final String topic, final IMessageCallback callback) throws MqttException {
         synchronized (subscriptions) {
-            List<IMessageCallback> callbacks = subscriptions.get(topic);
-            if (callbacks != null) {
-                callbacks.remove(callback);
+            IMessageCallback removed = null;
+            Subscription subscription = subscriptions.get(topic);
+            if (subscription != null) {
+                removed = subscription.remove(callback);
+                updateRoute(SharedSubscription.routingFilter(topic));
 
-                if (callbacks.isEmpty()) {
-                    if (client.isConnected()) {
+                if (subscription.callbacks.isEmpty()) {
+                    if (pendingSubscribes.remove(topic) && subscription.subscribedQos == Subscription.NOT_SUBSCRIBED) {
+                        LOG.fine("Subscription to '" + topic + "' was removed before it was sent");
+                    } else if (client.isConnected()) {
                         client.unsubscribe(topic);
                     } else {
                         topicsToUnsubscribe.add(topic);
                     }
 
                     subscriptions.remove(topic);
+                    metrics.subscriptionCountChanged(subscriptions.size());
+                    removeSharedFilter(topic);
+                } else if (subscription.getQos() < subscription.subscribedQos) {
+                    requestSubscribe(topic, subscription);
                 }
             }
+
+            return removed;
+        }
+    }
+
+    // Messages carry no hint of the subscription they were delivered for, so a plain subscription
+    // and shared ones of different groups with the same filter could not be told apart. Each would
+    // receive the messages of all others, and twice where the broker delivers to several of them.
+    private void checkRoutingFilterUnused(String topic, String routingFilter) {
+        String existing = sharedFilters.get(routingFilter);
+        if (existing == null && subscriptions.containsKey(routingFilter)) {
+            existing = routingFilter;
+        }
+
+        if (existing != null) {
+            throw new IllegalArgumentException("Subscription '" + topic + "' cannot be routed apart from '" + existing + "'");
+        }
+    }
+
+    private void updateRoute(String routingFilter) {
+        String shared = sharedFilters.get(routingFilter);
+        Subscription subscription = subscriptions.get(shared == null ? routingFilter : shared);
+        List<IMessageCallback> callbacks = subscription == null
+                ? Collections.<IMessageCallback>emptyList()
+                : subscription.callbacks;
+
+        topicTree = topicTree.put(routingFilter, callbacks);
+        topicCache.invalidate(routingFilter);
+    }
+
+    private void removeSharedFilter(String topic) {
+        if (SharedSubscription.isShared(topic)) {
+            sharedFilters.remove(SharedSubscription.routingFilter(topic));
+        }
+    }
+
+    private void requestSubscribe(String topic, Subscription subscription) throws MqttException {
+        if (!client.isConnected()) {
+            return;
+        }
+
+        if (coalescingWindow > 0) {
+            pendingSubscribes.add(topic);
+            scheduleFlush();
+        } else {
+            subscription.subscribedQos = subscription.getQos();
+            client.subscribe(topic, subscription.subscribedQos);
         }
     }
 
     void syncSubscriptions() throws MqttException {
         synchronized (subscriptions) {
-            for (String topic : subscriptions.keySet()) {
-                client.subscribe(topic, 2);
+            long start = System.nanoTime();
+
+            pendingSubscribes.clear();
+            subscribeInBatches(new ArrayList<>(subscriptions.keySet()));
+            unsubscribeInBatches(topicsToUnsubscribe);
+            topicsToUnsubscribe.clear();
+
+            metrics.subscriptionsSynced(subscriptions.size(), System.nanoTime() - start);
+        }
+    }
+
+    void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+
+        synchronized (subscriptions) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    // subscriptions made while connected are collected for the given window and sent in batches
+    void setCoalescing(ScheduledExecutorService scheduler, long windowMillis) throws MqttException {
+        synchronized (subscriptions) {
+            coalescingScheduler = scheduler;
+            coalescingWindow = windowMillis;
+
+            if (windowMillis <= 0) {
+                flushPendingSubscribes();
+            }
+        }
+    }
+
+    void flushPendingSubscribes() throws MqttException {
+        synchronized (subscriptions) {
+            if (flushFuture != null) {
+                flushFuture.cancel(false);
+                flushFuture = null;
             }
 
-            for (String topic : topicsToUnsubscribe) {
-                client.unsubscribe(topic);
+            if (pendingSubscribes.isEmpty()) {
+                return;
             }
 
-            topicsToUnsubscribe.clear();
+            // topics that cannot be sent now are part of the next syncSubscriptions()
+            List<String> topics = new ArrayList<>(pendingSubscribes);
+            pendingSubscribes.clear();
+            if (client.isConnected()) {
+                subscribeInBatches(topics);
+            }
         }
     }
 
-    List<IMessageCallback> getCallbacks(String topic) {
-        synchronized (subscriptions) {
-            List<IMessageCallback> result = new ArrayList<>();
-            for (Map.Entry<String, List<IMessageCallback>> entry : subscriptions.entrySet()) {
-                if (matches(topic, entry.getKey())) {
-                    result.addAll(entry.getValue());
+    private void scheduleFlush() {
+        if (flushFuture != null) {
+            return;
+        }
+
+        flushFuture = coalescingScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushPendingSubscribes();
+                } catch (MqttException e) {
+                    LOG.severe("Error: " + e.getLocalizedMessage());
                 }
             }
+        }, coalescingWindow, TimeUnit.MILLISECONDS);
+    }
+
+    private void subscribeInBatches(Collection<String> topics) throws MqttException {
+        List<String> batch = new ArrayList<>(Math.min(batchSize, topics.size()));
+        for (String topic : topics) {
+            batch.add(topic);
+            if (batch.size() == batchSize) {
+                subscribe(batch);
+                batch.clear();
+            }
+        }
 
-            return result;
+        if (!batch.isEmpty()) {
+            subscribe(batch);
         }
     }
 
-    static boolean matches(String topic, String subscription) {
-        List<String> topLevels = splitLevels(topic);
-        List<String> subLevels = splitLevels(subscription);
+    private void subscribe(List<String> topics) throws MqttException {
+        int[] qos = new int[topics.size()];
+        for (int i = 0; i < qos.length; i++) {
+            Subscription subscription = subscriptions.get(topics.get(i));
+            subscription.subscribedQos = subscription.getQos();
+            qos[i] = subscription.subscribedQos;
+        }
 
-        if (subLevels.indexOf("#") == -1) {
-            if (topLevels.size() != subLevels.size()) {
-                return false;
+        client.subscribe(topics.toArray(new String[topics.size()]), qos);
+    }
+
+    private void unsubscribeInBatches(Collection<String> topics) throws MqttException {
+        List<String> batch = new ArrayList<>(Math.min(batchSize, topics.size()));
+        for (String topic : topics) {
+            batch.add(topic);
+            if (batch.size() == batchSize) {
+                client.unsubscribe(batch.toArray(new String[batch.size()]));
+                batch.clear();
             }
-        } else {
-            if (topLevels.size() < subLevels.size() - 1) {
-                return false;
+        }
+
+        if (!batch.isEmpty()) {
+            client.unsubscribe(batch.toArray(new String[batch.size()]));
+        }
+    }
+
+    List<IMessageCallback> getCallbacks(String topic) {
+        List<IMessageCallback> callbacks = topicCache.get(topic);
+        if (callbacks == null) {
+            TopicTree tree = topicTree;
+            callbacks = tree.collect(topic);
+            topicCache.put(topic, callbacks);
+
+            // a concurrent (un)subscribe might have invalidated the topic before it was cached
+            if (tree != topicTree) {
+                topicCache.remove(topic);
             }
         }
 
-        Iterator<String> topIter = topLevels.iterator();
-        for (String subLevel : subLevels) {
-            if ("#".equals(subLevel)) {
+        return callbacks;
+    }
+
+    // bypasses the topic cache, which is meant for the topics messages arrive on
+    boolean isRouted(String topic) {
+        return !topicTree.collect(topic).isEmpty();
+    }
+
+    TopicCache getTopicCache() {
+        return topicCache;
+    }
+
+    // shared subscriptions match like the filter after their group. Walks both strings level by
+    // level without splitting them, since metrics and codec lookups call this on the message path.
+    static boolean matches(String topic, String subscription) {
+        String filter = SharedSubscription.routingFilter(subscription);
+        int topicStart = 0;
+        int filterStart = 0;
+        boolean isTopicConsumed = false;
+
+        while (true) {
+            int filterEnd = levelEnd(filter, filterStart);
+            int filterLength = filterEnd - filterStart;
+            if (filterLength == 1 && filter.charAt(filterStart) == '#') {
                 return true;
             }
 
-            if (!subLevel.equals(topIter.next()) && !"+".equals(subLevel)) {
+            if (isTopicConsumed) {
+                return false;
+            }
+
+            int topicEnd = levelEnd(topic, topicStart);
+            boolean isSingleLevelWildcard = filterLength == 1 && filter.charAt(filterStart) == '+';
+            if (!isSingleLevelWildcard && (filterLength != topicEnd - topicStart
+                    || !topic.regionMatches(topicStart, filter, filterStart, filterLength))) {
                 return false;
             }
+
+            if (filterEnd == filter.length()) {
+                return topicEnd == topic.length();
+            }
+
+            filterStart = filterEnd + 1;
+            if (topicEnd == topic.length()) {
+                // only a following multi-level wildcard can still match, like "foo/#" matches "foo"
+                isTopicConsumed = true;
+            } else {
+                topicStart = topicEnd + 1;
+            }
         }
+    }
 
-        return true;
+    private static int levelEnd(String topic, int start) {
+        int end = topic.indexOf('/', start);
+        return end == -1 ? topic.length() : end;
     }
 
-    private static List<String> splitLevels(String topic) {
-        return "/".equals(topic)
-                ? Arrays.asList("", "")
-                : Arrays.asList(topic.split("/"));
+    private static final class Subscription {
+        static final int NOT_SUBSCRIBED = -1;
+
+        private final List<IMessageCallback> callbacks = new ArrayList<>();
+        private final List<Integer> qos = new ArrayList<>();
+
+        // the QoS last requested from the broker
+        private int subscribedQos = NOT_SUBSCRIBED;
+
+        void add(IMessageCallback callback, int qos) {
+            callbacks.add(callback);
+            this.qos.add(qos);
+        }
+
+        IMessageCallback remove(IMessageCallback callback) {
+            for (int i = 0; i < callbacks.size(); i++) {
+                IMessageCallback candidate = callbacks.get(i);
+                if (candidate.equals(callback)
+                        || (candidate instanceof WrappedCallback && ((WrappedCallback) candidate).wraps(callback))) {
+                    callbacks.remove(i);
+                    qos.remove(i);
+                    return candidate;
+                }
+            }
+
+            return null;
+        }
+
+        int getQos() {
+            int max = 0;
+            for (int value : qos) {
+                max = Math.max(max, value);
+            }
+
+            return max;
+        }
     }
 }
@@ -0,0 +1,37 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+public class SubscriptionOptions {
+    private int qos = SubscriptionHandler.DEFAULT_QOS;
+    private boolean conflate;
+    private PayloadFilter filter;
+
+    public int getQos() {
+        return qos;
+    }
+
+    // the broker subscription of a topic filter uses the highest QoS of all its callbacks
+    public void setQos(int qos) {
+        MqttMessage.validateQos(qos);
+        this.qos = qos;
+    }
+
+    public boolean isConflate() {
+        return conflate;
+    }
+
+    // deliver only the latest message per topic while the callback is still busy with a previous one
+    public void setConflate(boolean conflate) {
+        this.conflate = conflate;
+    }
+
+    public PayloadFilter getFilter() {
+        return filter;
+    }
+
+    // drop messages whose raw payload does not pass the filter before the callback decodes them
+    public void setFilter(PayloadFilter filter) {
+        this.filter = filter;
+    }
+}
@@ -0,0 +1,60 @@
+package de.artcom.mqtt;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Maps concrete topics to their resolved callbacks, bounded by a ClockCache.
+final class TopicCache {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final ClockCache<String, List<IMessageCallback>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    TopicCache(int capacity) {
+        entries = new ClockCache<>(capacity);
+    }
+
+    List<IMessageCallback> get(String topic) {
+        List<IMessageCallback> callbacks = entries.get(topic);
+        if (callbacks == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return callbacks;
+    }
+
+    void put(String topic, List<IMessageCallback> callbacks) {
+        entries.put(topic, callbacks);
+    }
+
+    void remove(String topic) {
+        entries.remove(topic);
+    }
+
+    void invalidate(String filter) {
+        for (String topic : entries.keySet()) {
+            if (SubscriptionHandler.matches(topic, filter)) {
+                entries.remove(topic);
+            }
+        }
+    }
+
+    void setCapacity(int capacity) {
+        entries.setCapacity(capacity);
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
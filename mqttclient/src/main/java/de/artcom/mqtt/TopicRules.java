@@ -0,0 +1,99 @@
+package de.artcom.mqtt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Values by topic filter, such as codecs. Filters are matched in the order they were first set,
+// the default applies to topics no filter matches. Resolved topics are kept in a ClockCache since
+// the topics a client sees rarely vary much.
+final class TopicRules<T> {
+    static final int MAX_CACHED_TOPICS = 1024;
+
+    private final T defaultValue;
+    private volatile List<Rule<T>> rules = new ArrayList<>();
+    private final ClockCache<String, T> cache = new ClockCache<>(MAX_CACHED_TOPICS);
+
+    TopicRules(T defaultValue) {
+        this.defaultValue = defaultValue;
+    }
+
+    T forTopic(String topic) {
+        List<Rule<T>> rules = this.rules;
+        if (rules.isEmpty()) {
+            return defaultValue;
+        }
+
+        T value = cache.get(topic);
+        if (value != null) {
+            return value;
+        }
+
+        value = defaultValue;
+        for (int i = 0; i < rules.size(); i++) {
+            Rule<T> rule = rules.get(i);
+            if (SubscriptionHandler.matches(topic, rule.filter)) {
+                value = rule.value;
+                break;
+            }
+        }
+
+        cache.put(topic, value);
+
+        // a concurrent change might have cleared the cache before the topic was added
+        if (rules != this.rules) {
+            cache.remove(topic);
+        }
+
+        return value;
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    // the default and every value set, each once
+    List<T> values() {
+        List<T> values = new ArrayList<>();
+        values.add(defaultValue);
+        for (Rule<T> rule : rules) {
+            if (!values.contains(rule.value)) {
+                values.add(rule.value);
+            }
+        }
+
+        return values;
+    }
+
+    // a null value removes the filter
+    synchronized void put(String filter, T value) {
+        List<Rule<T>> updated = new ArrayList<>(rules.size() + 1);
+        boolean replaced = false;
+        for (Rule<T> rule : rules) {
+            if (rule.filter.equals(filter)) {
+                replaced = true;
+                if (value != null) {
+                    updated.add(new Rule<>(filter, value));
+                }
+            } else {
+                updated.add(rule);
+            }
+        }
+
+        if (!replaced && value != null) {
+            updated.add(new Rule<>(filter, value));
+        }
+
+        rules = updated;
+        cache.clear();
+    }
+
+    private static final class Rule<T> {
+        private final String filter;
+        private final T value;
+
+        private Rule(String filter, T value) {
+            this.filter = filter;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.artcom.mqtt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Immutable, so a published tree can be read from any thread without locking. Updates copy the
+// nodes along the path of the changed filter and share everything else with the previous tree.
+final class TopicTree {
+    static final String SINGLE_LEVEL_WILDCARD = "+";
+    static final String MULTI_LEVEL_WILDCARD = "#";
+
+    static final TopicTree EMPTY = new TopicTree(Node.EMPTY);
+
+    private final Node root;
+
+    private TopicTree(Node root) {
+        this.root = root;
+    }
+
+    TopicTree put(String filter, List<IMessageCallback> callbacks) {
+        List<IMessageCallback> snapshot = callbacks.isEmpty()
+                ? Collections.<IMessageCallback>emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(callbacks));
+        return new TopicTree(put(root, splitLevels(filter), 0, snapshot));
+    }
+
+    List<IMessageCallback> collect(String topic) {
+        return collect(root, splitLevels(topic), 0);
+    }
+
+    private static Node put(Node node, String[] levels, int index, List<IMessageCallback> callbacks) {
+        if (index == levels.length) {
+            return node.withCallbacks(callbacks);
+        }
+
+        String level = levels[index];
+
+        // everything below a multi-level wildcard is unreachable, just like in matches()
+        int next = MULTI_LEVEL_WILDCARD.equals(level) ? levels.length : index + 1;
+        return node.withChild(level, put(node.child(level), levels, next, callbacks));
+    }
+
+    private static List<IMessageCallback> collect(Node node, String[] levels, int index) {
+        List<IMessageCallback> result = node.child(MULTI_LEVEL_WILDCARD).callbacks;
+
+        if (index == levels.length) {
+            return concat(result, node.callbacks);
+        }
+
+        String level = levels[index];
+        if (!SINGLE_LEVEL_WILDCARD.equals(level) && !MULTI_LEVEL_WILDCARD.equals(level)) {
+            Node exact = node.children.get(level);
+            if (exact != null) {
+                result = concat(result, collect(exact, levels, index + 1));
+            }
+        }
+
+        Node singleLevel = node.children.get(SINGLE_LEVEL_WILDCARD);
+        if (singleLevel != null) {
+            result = concat(result, collect(singleLevel, levels, index + 1));
+        }
+
+        return result;
+    }
+
+    // only allocates when callbacks of more than one filter match
+    private static List<IMessageCallback> concat(List<IMessageCallback> first, List<IMessageCallback> second) {
+        if (second.isEmpty()) {
+            return first;
+        }
+
+        if (first.isEmpty()) {
+            return second;
+        }
+
+        List<IMessageCallback> result = new ArrayList<>(first.size() + second.size());
+        result.addAll(first);
+        result.addAll(second);
+        return Collections.unmodifiableList(result);
+    }
+
+    // keeps empty trailing levels, so "foo" and "foo/" are different topics
+    static String[] splitLevels(String topic) {
+        return topic.split("/", -1);
+    }
+
+    private static final class Node {
+        static final Node EMPTY = new Node(
+                Collections.<String, Node>emptyMap(),
+                Collections.<IMessageCallback>emptyList());
+
+        private final Map<String, Node> children;
+        private final List<IMessageCallback> callbacks;
+
+        private Node(Map<String, Node> children, List<IMessageCallback> callbacks) {
+            this.children = children;
+            this.callbacks = callbacks;
+        }
+
+        Node child(String level) {
+            Node child = children.get(level);
+            return child == null ? EMPTY : child;
+        }
+
+        Node withCallbacks(List<IMessageCallback> callbacks) {
+            return create(children, callbacks);
+        }
+
+        Node withChild(String level, Node child) {
+            Map<String, Node> copy = new HashMap<>(children);
+            if (child == EMPTY) {
+                copy.remove(level);
+            } else {
+                copy.put(level, child);
+            }
+
+            return create(copy.isEmpty() ? Collections.<String, Node>emptyMap() : copy, callbacks);
+        }
+
+        private static Node create(Map<String, Node> children, List<IMessageCallback> callbacks) {
+            return children.isEmpty() && callbacks.isEmpty() ? EMPTY : new Node(children, callbacks);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures the messages a {@link Client} receives and publishes into a memory-mapped file of fixed
+ * capacity, set with {@link Client#setTrafficRecorder}. Each record holds the topic, QoS, retained
+ * flag, time since the capture started and payload. Records beyond the capacity are dropped and
+ * counted. A capture is played back through a client with {@link TrafficReplayer}.
+ */
+public class TrafficRecorder {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int MAGIC = 0x4d515443;
+    static final byte VERSION = 1;
+    // magic, version and the start of the capture in milliseconds since the epoch
+    static final int FILE_HEADER = 4 + 1 + 8;
+    // type, flags, nanoseconds since the start and topic length
+    static final int RECORD_HEADER = 1 + 1 + 8 + 2;
+
+    static final byte RECEIVED = 1;
+    static final byte PUBLISHED = 2;
+    static final int RETAINED_FLAG = 4;
+
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final long startNanos;
+    private int position = FILE_HEADER;
+    private int recordCount;
+    private boolean isClosed;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public TrafficRecorder(String path, int capacity) throws IOException {
+        if (capacity <= FILE_HEADER + 4) {
+            throw new IllegalArgumentException("Capacity must exceed the file header");
+        }
+
+        File file = new File(path);
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+
+        startNanos = System.nanoTime();
+        buffer.putInt(0, MAGIC);
+        buffer.put(4, VERSION);
+        buffer.putLong(5, System.currentTimeMillis());
+    }
+
+    synchronized public int getRecordCount() {
+        return recordCount;
+    }
+
+    // bytes used including the file header
+    synchronized public int getByteCount() {
+        return position;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    synchronized public void close() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+        try {
+            buffer.force();
+            randomAccessFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    void received(String topic, MqttMessage message) {
+        append(RECEIVED, topic, message.getPayload(), message.getQos(), message.isRetained());
+    }
+
+    void published(String topic, byte[] payload, int qos, boolean retained) {
+        append(PUBLISHED, topic, payload, qos, retained);
+    }
+
+    private void append(byte type, String topic, byte[] payload, int qos, boolean retained) {
+        long nanos = System.nanoTime() - startNanos;
+        byte[] topicBytes = topic.getBytes(UTF_8);
+        int length = RECORD_HEADER + topicBytes.length + payload.length;
+
+        synchronized (this) {
+            // leaves room for the terminating zero length
+            if (isClosed || (long) position + 4 + length + 4 > buffer.capacity()) {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + 4);
+            target.put(type).put((byte) (qos | (retained ? RETAINED_FLAG : 0))).putLong(nanos);
+            target.putShort((short) topicBytes.length).put(topicBytes).put(payload);
+            buffer.putInt(position + 4 + length, 0);
+
+            // the length is written last, so a record is never visible before it is complete
+            buffer.putInt(position, length);
+            position += 4 + length;
+            recordCount++;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Feeds the received messages of a {@link TrafficRecorder} capture through the dispatch path of a
+ * client, without a broker. Messages are replayed at their original pace or as fast as possible,
+ * and the report gives the throughput and the latency of every callback. Replayed messages bypass
+ * the client's recorder and last-value cache. Published messages of the capture are counted but
+ * not sent.
+ */
+public class TrafficReplayer {
+    private static final Logger LOG = Logger.getLogger(TrafficReplayer.class.getSimpleName());
+
+    // how long to wait for callbacks still running on a dispatcher after the last message
+    private static final long COMPLETION_TIMEOUT_MILLIS = 10000;
+    // dropped and conflated deliveries do not notify, so the wait rechecks them periodically
+    private static final long COMPLETION_POLL_MILLIS = 10;
+
+    private final long startMillis;
+    private final List<Record> received = new ArrayList<>();
+    private int publishedCount;
+
+    // loads the whole capture, so reading the file does not count towards the replay
+    public TrafficReplayer(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.capacity() < TrafficRecorder.FILE_HEADER || buffer.getInt(0) != TrafficRecorder.MAGIC) {
+                throw new IOException(path + " is not a traffic capture");
+            }
+
+            if (buffer.get(4) != TrafficRecorder.VERSION) {
+                throw new IOException("Unsupported capture version " + buffer.get(4));
+            }
+
+            startMillis = buffer.getLong(5);
+            buffer.position(TrafficRecorder.FILE_HEADER);
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length == 0) {
+                    break;
+                }
+
+                if (length < TrafficRecorder.RECORD_HEADER || length > buffer.remaining()) {
+                    throw new IOException("Corrupt record at offset " + (buffer.position() - 4));
+                }
+
+                read(buffer, length);
+            }
+        }
+    }
+
+    private void read(ByteBuffer buffer, int length) {
+        byte type = buffer.get();
+        byte flags = buffer.get();
+        long nanos = buffer.getLong();
+        byte[] topic = new byte[buffer.getShort() & 0xffff];
+        buffer.get(topic);
+        byte[] payload = new byte[length - TrafficRecorder.RECORD_HEADER - topic.length];
+        buffer.get(payload);
+
+        if (type != TrafficRecorder.RECEIVED) {
+            publishedCount++;
+            return;
+        }
+
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(flags & 3);
+        message.setRetained((flags & TrafficRecorder.RETAINED_FLAG) != 0);
+        received.add(new Record(new String(topic, TrafficRecorder.UTF_8), nanos, message));
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getReceivedCount() {
+        return received.size();
+    }
+
+    public int getPublishedCount() {
+        return publishedCount;
+    }
+
+    // the client's metrics are suspended during the replay, its callbacks must be subscribed already
+    public Report replay(Client client, boolean originalTiming) throws InterruptedException {
+        LatencyRecorder latencies = new LatencyRecorder();
+        ClientMetrics previous = client.replaceMetrics(latencies);
+        try {
+            // resolved before the clock starts, so the lookups do not count towards the replay
+            long expected = 0;
+            for (Record record : received) {
+                expected += client.getCallbackCount(record.topic);
+            }
+
+            long skippedBefore = client.getSkippedCallbackCount();
+            long startNanos = System.nanoTime();
+            for (Record record : received) {
+                if (originalTiming) {
+                    waitUntil(startNanos + record.nanos);
+                }
+
+                try {
+                    // every replay gets fresh messages, callbacks may keep them
+                    MqttMessage message = new MqttMessage(record.message.getPayload());
+                    message.setQos(record.message.getQos());
+                    message.setRetained(record.message.isRetained());
+                    client.dispatch(record.topic, message, System.nanoTime());
+                } catch (RuntimeException e) {
+                    LOG.severe("Error: " + e.getLocalizedMessage());
+                }
+            }
+
+            latencies.awaitDeliveries(client, expected, skippedBefore, COMPLETION_TIMEOUT_MILLIS);
+            return latencies.report(received.size(), System.nanoTime() - startNanos);
+        } finally {
+            client.replaceMetrics(previous);
+        }
+    }
+
+    private static void waitUntil(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    public static final class Report {
+        private final int messageCount;
+        private final long deliveryCount;
+        private final long durationNanos;
+        private final Map<IMessageCallback, CallbackLatency> callbackLatencies;
+
+        private Report(int messageCount, long deliveryCount, long durationNanos, Map<IMessageCallback, CallbackLatency> callbackLatencies) {
+            this.messageCount = messageCount;
+            this.deliveryCount = deliveryCount;
+            this.durationNanos = durationNanos;
+            this.callbackLatencies = callbackLatencies;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        // completed callback invocations
+        public long getDeliveryCount() {
+            return deliveryCount;
+        }
+
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public double getMessagesPerSecond() {
+            return durationNanos == 0 ? 0 : messageCount * 1e9 / durationNanos;
+        }
+
+        // by callback as subscribed, wrapped callbacks such as conflating ones are reported on their own
+        public Map<IMessageCallback, CallbackLatency> getCallbackLatencies() {
+            return callbackLatencies;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format("%d messages, %d deliveries in %d ms, %.0f msg/s",
+                    messageCount, deliveryCount, getDuration(TimeUnit.MILLISECONDS), getMessagesPerSecond()));
+            for (Map.Entry<IMessageCallback, CallbackLatency> entry : callbackLatencies.entrySet()) {
+                builder.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+
+            return builder.toString();
+        }
+    }
+
+    // from the arrival of a message until the callback returned, including dispatcher queueing
+    public static final class CallbackLatency {
+        private final long[] sortedNanos;
+
+        private CallbackLatency(long[] sortedNanos) {
+            this.sortedNanos = sortedNanos;
+        }
+
+        public int getCount() {
+            return sortedNanos.length;
+        }
+
+        // e.g. 0.99 for the 99th percentile
+        public long getPercentile(double quantile, TimeUnit unit) {
+            int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+            return unit.convert(sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))], TimeUnit.NANOSECONDS);
+        }
+
+        public long getMax(TimeUnit unit) {
+            return unit.convert(sortedNanos[sortedNanos.length - 1], TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d calls, p50 %d us, p99 %d us, max %d us", getCount(),
+                    getPercentile(0.5, TimeUnit.MICROSECONDS), getPercentile(0.99, TimeUnit.MICROSECONDS),
+                    getMax(TimeUnit.MICROSECONDS));
+        }
+    }
+
+    private static final class Record {
+        private final String topic;
+        private final long nanos;
+        private final MqttMessage message;
+
+        private Record(String topic, long nanos, MqttMessage message) {
+            this.topic = topic;
+            this.nanos = nanos;
+            this.message = message;
+        }
+    }
+
+    // collects every callback latency, unlike regular metrics it allocates in the message path
+    private static final class LatencyRecorder extends ClientMetrics {
+        private final Map<IMessageCallback, long[]> latencies = new IdentityHashMap<>();
+        private final Map<IMessageCallback, Integer> counts = new IdentityHashMap<>();
+        private long deliveryCount;
+
+        @Override
+        synchronized public void callbackCompleted(IMessageCallback callback, long latencyNanos) {
+            long[] values = latencies.get(callback);
+            int count = values == null ? 0 : counts.get(callback);
+            if (values == null || count == values.length) {
+                values = values == null ? new long[64] : Arrays.copyOf(values, count * 2);
+                latencies.put(callback, values);
+            }
+
+            values[count] = latencyNanos;
+            counts.put(callback, count + 1);
+            deliveryCount++;
+            notifyAll();
+        }
+
+        // deliveries the dispatcher dropped or conflated count as done, they will never complete
+        synchronized void awaitDeliveries(Client client, long expected, long skippedBefore, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long outstanding;
+            long remaining;
+            while ((outstanding = expected - deliveryCount - (client.getSkippedCallbackCount() - skippedBefore)) > 0
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(Math.min(remaining, COMPLETION_POLL_MILLIS));
+            }
+
+            if (outstanding > 0) {
+                LOG.severe("Replay ended with " + outstanding + " deliveries outstanding");
+            }
+        }
+
+        synchronized Report report(int messageCount, long durationNanos) {
+            Map<IMessageCallback, CallbackLatency> result = new IdentityHashMap<>();
+            for (Map.Entry<IMessageCallback, long[]> entry : latencies.entrySet()) {
+                long[] sorted = Arrays.copyOf(entry.getValue(), counts.get(entry.getKey()));
+                Arrays.sort(sorted);
+                result.put(entry.getKey(), new CallbackLatency(sorted));
+            }
+
+            return new Report(messageCount, deliveryCount, durationNanos, Collections.unmodifiableMap(result));
+        }
+    }
+}
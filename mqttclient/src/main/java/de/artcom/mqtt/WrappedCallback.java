@@ -0,0 +1,20 @@
+package de.artcom.mqtt;
+
+abstract class WrappedCallback implements IMessageCallback {
+    final IMessageCallback delegate;
+
+    WrappedCallback(IMessageCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    boolean wraps(IMessageCallback callback) {
+        return delegate == callback || (delegate instanceof WrappedCallback && ((WrappedCallback) delegate).wraps(callback));
+    }
+
+    // called once the wrapper was removed from its subscription
+    void close() {
+        if (delegate instanceof WrappedCallback) {
+            ((WrappedCallback) delegate).close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ClientMetricsTest {
+    private IMqttAsyncClient mockClient;
+    private Client client;
+    private RecordingMetrics metrics;
+
+    static class RecordingMetrics extends ClientMetrics {
+        final List<String> events = new ArrayList<>();
+        int subscriptionCount;
+
+        @Override
+        public void messageReceived(String topicFilter, int payloadBytes) {
+            events.add("received " + topicFilter + " " + payloadBytes);
+        }
+
+        @Override
+        public void messagePublished(String topicFilter, int payloadBytes) {
+            events.add("published " + topicFilter + " " + payloadBytes);
+        }
+
+        @Override
+        public void callbackCompleted(IMessageCallback callback, long latencyNanos) {
+            events.add("callback");
+        }
+
+        @Override
+        public void parseError(String topicFilter) {
+            events.add("parse error " + topicFilter);
+        }
+
+        @Override
+        public void messageFiltered(String topicFilter) {
+            events.add("filtered " + topicFilter);
+        }
+
+        @Override
+        public void publishAcknowledged(String topicFilter, long latencyNanos) {
+            events.add("acknowledged " + topicFilter);
+        }
+
+        @Override
+        public void subscriptionCountChanged(int count) {
+            subscriptionCount = count;
+        }
+    }
+
+    class IntegerCallback extends MessageCallback<Integer> {
+        @Override
+        public void onMessage(String topic, Integer payload, MqttMessage message) {
+        }
+
+        @Override
+        public void onParseError(IOException error, MqttMessage message) {
+        }
+    }
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+
+        client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+        metrics = new RecordingMetrics();
+        client.setMetrics(metrics, "sensors/#");
+    }
+
+    @Test
+    public void reportsReceivedMessagesByFilter() throws Exception {
+        client.subscribe("#", new IntegerCallback());
+
+        client.messageArrived("sensors/a", new MqttMessage("1".getBytes()));
+        client.messageArrived("status", new MqttMessage("no number".getBytes()));
+
+        assertEquals(5, metrics.events.size());
+        assertEquals("received sensors/# 1", metrics.events.get(0));
+        assertEquals("callback", metrics.events.get(1));
+        assertEquals("received # 9", metrics.events.get(2));
+        assertEquals("parse error #", metrics.events.get(3));
+    }
+
+    @Test
+    public void reportsPublishesAndAcknowledgements() throws MqttException {
+        client.publish("sensors/a", new byte[3], 1, false, null);
+        PublishFuture future = client.publishAsync("other", new byte[2], 1, false);
+
+        IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        when(token.getUserContext()).thenReturn(future);
+        client.deliveryComplete(token);
+
+        assertEquals(3, metrics.events.size());
+        assertEquals("published sensors/# 3", metrics.events.get(0));
+        assertEquals("published # 2", metrics.events.get(1));
+        assertEquals("acknowledged #", metrics.events.get(2));
+    }
+
+    @Test
+    public void reportsAcknowledgementsOfPublishWithListener() throws MqttException {
+        IMqttActionListener listener = mock(IMqttActionListener.class);
+        client.publish("sensors/a", new byte[3], 1, false, listener);
+
+        // the listener is passed on as is, the acknowledgement is timed through the user context
+        ArgumentCaptor<Object> context = ArgumentCaptor.forClass(Object.class);
+        verify(mockClient).publish(eq("sensors/a"), any(MqttMessage.class), context.capture(), same(listener));
+        IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        when(token.getUserContext()).thenReturn(context.getValue());
+        client.deliveryComplete(token);
+
+        assertEquals("acknowledged sensors/#", metrics.events.get(1));
+    }
+
+    @Test
+    public void resolvesSubscribedCallbackBehindWrappers() {
+        IntegerCallback callback = new IntegerCallback();
+        IMessageCallback wrapped = new ConflatingCallback(callback, mock(Executor.class), new AtomicLong(), new AtomicLong());
+
+        assertSame(callback, ClientMetrics.subscribedCallback(wrapped));
+        assertSame(callback, ClientMetrics.subscribedCallback(callback));
+    }
+
+    @Test
+    public void reportsSubscriptionCount() throws MqttException {
+        IntegerCallback callback = new IntegerCallback();
+        client.subscribe("a", callback);
+        client.subscribe("b", callback);
+        assertEquals(2, metrics.subscriptionCount);
+
+        client.unsubscribe("a", callback);
+        assertEquals(1, metrics.subscriptionCount);
+    }
+}
@@ -0,0 +1,153 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class CodecTest {
+    private Client client;
+    private final List<Object> received = new ArrayList<>();
+    private final List<Exception> errors = new ArrayList<>();
+
+    static class Reading {
+        private final String id;
+        private final double value;
+
+        @JsonCreator
+        Reading(@JsonProperty("id") String id, @JsonProperty("value") double value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    class ReadingCallback extends MessageCallback<Reading> {
+        ReadingCallback() {
+        }
+
+        ReadingCallback(Codec codec) {
+            super(codec);
+        }
+
+        @Override
+        public void onMessage(String topic, Reading payload, MqttMessage message) {
+            received.add(payload);
+        }
+
+        @Override
+        public void onParseError(IOException error, MqttMessage message) {
+            errors.add(error);
+        }
+    }
+
+    @Before
+    public void setup() throws MqttException {
+        client = new Client("tcp://localhost:1883", "test", mock(ConnectionCallback.class));
+    }
+
+    @Test
+    public void decodesWithCodecOfMatchingFilter() throws Exception {
+        client.setCodec("telemetry/#", Codec.CBOR);
+        client.subscribe("#", new ReadingCallback());
+
+        client.messageArrived("telemetry/a", new MqttMessage(encode(Codec.CBOR, new Reading("a", 1.5))));
+        client.messageArrived("status/a", new MqttMessage(encode(Codec.JSON, new Reading("b", 2.5))));
+
+        assertTrue(errors.isEmpty());
+        assertEquals(2, received.size());
+        assertEquals("a", ((Reading) received.get(0)).id);
+        assertEquals(2.5, ((Reading) received.get(1)).value, 0);
+    }
+
+    @Test
+    public void callbackCodecOverridesTopicCodec() throws Exception {
+        client.setCodec("#", Codec.CBOR);
+        client.subscribe("sensors", new ReadingCallback(Codec.SMILE));
+
+        client.messageArrived("sensors", new MqttMessage(encode(Codec.SMILE, new Reading("s", 3))));
+
+        assertTrue(errors.isEmpty());
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void sharedPayloadsAreDecodedPerCodec() throws Exception {
+        client.setSharedPayloadDecoding(true);
+        client.setCodec("sensors", Codec.CBOR);
+        client.subscribe("sensors", new ReadingCallback());
+        client.subscribe("sensors", new ReadingCallback(Codec.JSON));
+
+        client.messageArrived("sensors", new MqttMessage(encode(Codec.CBOR, new Reading("s", 3))));
+
+        assertEquals(1, received.size());
+        assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void firstMatchingFilterWins() {
+        TopicRules<Codec> codecs = new TopicRules<>(Codec.JSON);
+        codecs.put("a/+", Codec.SMILE);
+        codecs.put("a/#", Codec.CBOR);
+
+        assertSame(Codec.SMILE, codecs.forTopic("a/b"));
+        assertSame(Codec.CBOR, codecs.forTopic("a/b/c"));
+        assertSame(Codec.JSON, codecs.forTopic("b"));
+
+        codecs.put("a/+", null);
+        assertSame(Codec.CBOR, codecs.forTopic("a/b"));
+    }
+
+    @Test
+    public void resolvesMoreTopicsThanTheCacheHolds() {
+        TopicRules<Codec> codecs = new TopicRules<>(Codec.JSON);
+        codecs.put("a/+", Codec.SMILE);
+        codecs.put("b/#", Codec.CBOR);
+
+        int topicCount = 3 * TopicRules.MAX_CACHED_TOPICS;
+        for (int i = 0; i < topicCount; i++) {
+            assertSame(Codec.SMILE, codecs.forTopic("a/" + i));
+            assertSame(Codec.CBOR, codecs.forTopic("b/" + i + "/c"));
+            assertSame(Codec.JSON, codecs.forTopic("c/" + i));
+            assertTrue(codecs.cacheSize() <= TopicRules.MAX_CACHED_TOPICS);
+        }
+
+        assertEquals(TopicRules.MAX_CACHED_TOPICS, codecs.cacheSize());
+
+        codecs.put("c/#", Codec.SMILE);
+        assertSame(Codec.SMILE, codecs.forTopic("c/" + (topicCount - 1)));
+    }
+
+    @Test
+    public void writesCodecFormat() throws Exception {
+        PayloadWriter writer = new PayloadWriter(PayloadWriter.newMapper(Codec.CBOR.newFactory()));
+        byte[] bytes = writer.write(Collections.singletonMap("id", "a"));
+
+        Object decoded = new ObjectMapper(new CBORFactory()).readValue(bytes, Object.class);
+        assertEquals(Collections.singletonMap("id", "a"), decoded);
+    }
+
+    @Test
+    public void readsJsonPayloadFromBinaryCodec() throws Exception {
+        JsonPayload payload = (JsonPayload) Codec.SMILE.readerFor(JsonPayload.class)
+                .read(encode(Codec.SMILE, new Reading("s", 4)));
+
+        assertEquals("s", payload.get("id").asText());
+        assertEquals(4, payload.getNode().get("value").asDouble(), 0);
+    }
+
+    private static byte[] encode(Codec codec, Object payload) throws Exception {
+        return new PayloadWriter(PayloadWriter.newMapper(codec.newFactory())).write(payload);
+    }
+}
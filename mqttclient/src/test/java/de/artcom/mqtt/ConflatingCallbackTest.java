@@ -0,0 +1,84 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ConflatingCallbackTest {
+    private Client client;
+    private SubscriptionOptions options;
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+    private final IMessageCallback slowCallback = new IMessageCallback() {
+        @Override
+        public void onRawMessage(String topic, MqttMessage message) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            received.add(topic + "=" + message);
+        }
+    };
+
+    @Before
+    public void setup() throws MqttException {
+        client = new Client("tcp://localhost:1883", "test", mock(ConnectionCallback.class));
+        options = new SubscriptionOptions();
+        options.setConflate(true);
+    }
+
+    @Test
+    public void deliversLatestValuePerTopic() throws Exception {
+        client.subscribe("sensors/+", slowCallback, options);
+
+        client.messageArrived("sensors/a", new MqttMessage("0".getBytes()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 5; i++) {
+            client.messageArrived("sensors/a", new MqttMessage(Integer.toString(i).getBytes()));
+            client.messageArrived("sensors/b", new MqttMessage(Integer.toString(i).getBytes()));
+        }
+
+        release.countDown();
+        waitForMessages(3);
+
+        assertEquals(Arrays.asList("sensors/a=0", "sensors/a=5", "sensors/b=5"), received);
+        assertEquals(8, client.getConflatedMessageCount());
+    }
+
+    @Test
+    public void dropsPendingMessagesOnUnsubscribe() throws Exception {
+        client.subscribe("sensors/a", slowCallback, options);
+
+        client.messageArrived("sensors/a", new MqttMessage("0".getBytes()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        client.messageArrived("sensors/a", new MqttMessage("1".getBytes()));
+
+        client.unsubscribe("sensors/a", slowCallback);
+        release.countDown();
+
+        assertEquals(1, client.getDroppedMessageCount());
+    }
+
+    private void waitForMessages(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
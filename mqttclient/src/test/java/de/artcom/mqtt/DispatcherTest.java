@@ -0,0 +1,163 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class DispatcherTest {
+    private Client client;
+    private Dispatcher dispatcher;
+
+    @Before
+    public void setup() throws MqttException {
+        client = new Client("tcp://localhost:1883", "test", mock(ConnectionCallback.class));
+    }
+
+    @After
+    public void teardown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void preservesOrderPerTopic() throws Exception {
+        dispatcher = new Dispatcher(4, 1024, Dispatcher.OverflowPolicy.BLOCK);
+        client.setDispatcher(dispatcher);
+
+        final int messages = 1000;
+        final String[] topics = {"a", "b", "c", "d", "e", "f"};
+        final CountDownLatch done = new CountDownLatch(messages * topics.length);
+        final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        final Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+        IMessageCallback callback = new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                received.get(topic).add(Integer.parseInt(message.toString()));
+                threads.put(topic + Thread.currentThread().getName(), Thread.currentThread());
+                done.countDown();
+            }
+        };
+
+        for (String topic : topics) {
+            received.put(topic, Collections.synchronizedList(new ArrayList<Integer>()));
+            client.subscribe(topic, callback);
+        }
+
+        for (int i = 0; i < messages; i++) {
+            for (String topic : topics) {
+                client.messageArrived(topic, new MqttMessage(Integer.toString(i).getBytes()));
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (String topic : topics) {
+            List<Integer> values = received.get(topic);
+            for (int i = 0; i < messages; i++) {
+                assertEquals(i, (int) values.get(i));
+            }
+        }
+
+        // every topic is handled by exactly one stripe
+        assertEquals(topics.length, threads.size());
+    }
+
+    @Test
+    public void dropsOldestWhenFull() throws Exception {
+        dispatcher = new Dispatcher(1, 2, Dispatcher.OverflowPolicy.DROP_OLDEST);
+        List<String> received = subscribeBlocked("topic", 3);
+
+        assertEquals("0", received.get(0));
+        assertEquals("4", received.get(1));
+        assertEquals("5", received.get(2));
+        assertEquals(3, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void conflatesPendingMessagesOfTopic() throws Exception {
+        dispatcher = new Dispatcher(1, 2, Dispatcher.OverflowPolicy.CONFLATE);
+        List<String> received = subscribeBlocked("topic", 3);
+
+        assertEquals("0", received.get(0));
+        assertEquals("1", received.get(1));
+        assertEquals("5", received.get(2));
+        assertEquals(3, dispatcher.getConflatedCount());
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void conflatesPerCallbackWhenPartitionedBySubscription() throws Exception {
+        dispatcher = new Dispatcher(1, 2, Dispatcher.OverflowPolicy.CONFLATE,
+                Dispatcher.Partitioning.SUBSCRIPTION, Executors.defaultThreadFactory());
+        client.setDispatcher(dispatcher);
+
+        final List<String> other = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch otherDone = new CountDownLatch(2);
+        client.subscribe("topic", new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                other.add(message.toString());
+                otherDone.countDown();
+            }
+        });
+
+        List<String> received = subscribeBlocked("topic", 2);
+
+        assertEquals("0", received.get(0));
+        assertEquals("5", received.get(1));
+        assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0", "5"), other);
+        assertEquals(0, dispatcher.getDroppedCount());
+    }
+
+    // sends six messages while the first one is blocked and returns what is received afterwards
+    private List<String> subscribeBlocked(String topic, int expected) throws Exception {
+        client.setDispatcher(dispatcher);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(expected);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        client.subscribe(topic, new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                received.add(message.toString());
+                done.countDown();
+            }
+        });
+
+        client.messageArrived(topic, new MqttMessage("0".getBytes()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i < 6; i++) {
+            client.messageArrived(topic, new MqttMessage(Integer.toString(i).getBytes()));
+        }
+        assertEquals(2, dispatcher.getQueueDepth(0));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return received;
+    }
+}
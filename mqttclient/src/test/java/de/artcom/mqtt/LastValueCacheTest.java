@@ -0,0 +1,255 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class LastValueCacheTest {
+    private IMqttAsyncClient mockClient;
+    private Client client;
+    private LastValueCache cache;
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+
+        cache = new LastValueCache(3, 100);
+        client.setLastValueCache(cache);
+    }
+
+    @Test
+    public void replaysMatchingTopicsToNewCallback() throws Exception {
+        client.subscribe("sensors/#", mock(IMessageCallback.class));
+        MqttMessage older = new MqttMessage("1".getBytes());
+        MqttMessage latest = new MqttMessage("2".getBytes());
+        client.messageArrived("sensors/a", older);
+        client.messageArrived("sensors/a", latest);
+        client.messageArrived("sensors/b", new MqttMessage("3".getBytes()));
+        client.messageArrived("status", new MqttMessage("4".getBytes()));
+
+        IMessageCallback late = mock(IMessageCallback.class);
+        client.subscribe("sensors/+", late);
+
+        verify(late).onRawMessage("sensors/a", latest);
+        verify(late).onRawMessage(eq("sensors/b"), any(MqttMessage.class));
+        verify(late, never()).onRawMessage(eq("status"), any(MqttMessage.class));
+        verify(late, never()).onRawMessage("sensors/a", older);
+        assertEquals(2, cache.getReplayedCount());
+    }
+
+    @Test
+    public void neverReplaysOlderValueAfterLiveMessage() throws Exception {
+        Dispatcher dispatcher = new Dispatcher(1, 1024, Dispatcher.OverflowPolicy.BLOCK);
+        client.setDispatcher(dispatcher);
+        client.subscribe("counter", mock(IMessageCallback.class));
+
+        final AtomicBoolean isRunning = new AtomicBoolean(true);
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; isRunning.get(); i++) {
+                        client.messageArrived("counter", new MqttMessage(String.valueOf(i).getBytes()));
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        publisher.start();
+
+        final AtomicBoolean isOrdered = new AtomicBoolean(true);
+        try {
+            for (int i = 0; i < 200; i++) {
+                client.subscribe("counter", new IMessageCallback() {
+                    private int last = -1;
+
+                    @Override
+                    public void onRawMessage(String topic, MqttMessage message) {
+                        int value = Integer.parseInt(new String(message.getPayload()));
+                        if (value < last) {
+                            isOrdered.set(false);
+                        }
+
+                        last = value;
+                    }
+                });
+            }
+        } finally {
+            isRunning.set(false);
+            publisher.join();
+        }
+
+        // the single stripe runs everything queued before the marker first
+        final CountDownLatch drained = new CountDownLatch(1);
+        client.subscribe("marker", new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                drained.countDown();
+            }
+        });
+        client.messageArrived("marker", new MqttMessage("1".getBytes()));
+        assertTrue(drained.await(10, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+
+        assertTrue(isOrdered.get());
+    }
+
+    @Test
+    public void subscribesFromCallbackWhileBlockingDispatcherIsFull() throws Exception {
+        final Dispatcher dispatcher = new Dispatcher(1, 1, Dispatcher.OverflowPolicy.BLOCK);
+        client.setDispatcher(dispatcher);
+        client.subscribe("sensors/a", mock(IMessageCallback.class));
+        client.messageArrived("sensors/a", new MqttMessage("1".getBytes()));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch replayed = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(3);
+        client.subscribe("commands", new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                try {
+                    if (started.getCount() > 0) {
+                        started.countDown();
+                        release.await();
+                        client.subscribe("sensors/+", new IMessageCallback() {
+                            @Override
+                            public void onRawMessage(String topic, MqttMessage message) {
+                                replayed.countDown();
+                            }
+                        });
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+
+                received.countDown();
+            }
+        });
+
+        client.messageArrived("commands", new MqttMessage("1".getBytes()));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        client.messageArrived("commands", new MqttMessage("2".getBytes()));
+
+        // the queue is full, so the paho thread waits in the dispatcher
+        Thread paho = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.messageArrived("commands", new MqttMessage("3".getBytes()));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        paho.start();
+        while (paho.getState() != Thread.State.WAITING) {
+            assertTrue(paho.isAlive());
+            Thread.sleep(1);
+        }
+
+        release.countDown();
+        assertTrue(replayed.await(5, TimeUnit.SECONDS));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        paho.join(1000);
+        assertFalse(paho.isAlive());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void dropsTopicsNoLongerCoveredOnUnsubscribe() throws Exception {
+        IMessageCallback all = mock(IMessageCallback.class);
+        IMessageCallback single = mock(IMessageCallback.class);
+        client.subscribe("sensors/#", all);
+        client.subscribe("sensors/a", single);
+        client.messageArrived("sensors/a", new MqttMessage("1".getBytes()));
+        client.messageArrived("sensors/b", new MqttMessage("2".getBytes()));
+
+        client.unsubscribe("sensors/#", all);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.matching("sensors/a").size());
+
+        client.unsubscribe("sensors/a", single);
+        assertEquals(0, cache.size());
+
+        // a later subscriber is not replayed values that stopped updating
+        IMessageCallback late = mock(IMessageCallback.class);
+        client.subscribe("sensors/#", late);
+        verify(late, never()).onRawMessage(anyString(), any(MqttMessage.class));
+    }
+
+    @Test
+    public void skipsCachingMessagesWithoutCallbacks() throws Exception {
+        client.messageArrived("sensors/a", new MqttMessage("1".getBytes()));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void replaysThroughDispatcher() throws Exception {
+        Dispatcher dispatcher = new Dispatcher(1, 16, Dispatcher.OverflowPolicy.BLOCK);
+        client.setDispatcher(dispatcher);
+        client.subscribe("sensors/a", mock(IMessageCallback.class));
+        client.messageArrived("sensors/a", new MqttMessage("1".getBytes()));
+
+        final CountDownLatch replayed = new CountDownLatch(1);
+        final AtomicBoolean isOnSubscribingThread = new AtomicBoolean();
+        final Thread subscribingThread = Thread.currentThread();
+        client.subscribe("sensors/+", new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                isOnSubscribingThread.set(Thread.currentThread() == subscribingThread);
+                replayed.countDown();
+            }
+        });
+
+        assertTrue(replayed.await(1, TimeUnit.SECONDS));
+        assertFalse(isOnSubscribingThread.get());
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUpdatedTopicBeyondEntryLimit() {
+        cache.put("a", new MqttMessage("1".getBytes()));
+        cache.put("b", new MqttMessage("1".getBytes()));
+        cache.put("c", new MqttMessage("1".getBytes()));
+        cache.put("a", new MqttMessage("2".getBytes()));
+        cache.put("d", new MqttMessage("1".getBytes()));
+
+        assertEquals(3, cache.size());
+        assertTrue(cache.matching("b").isEmpty());
+        assertEquals(1, cache.matching("a").size());
+        assertEquals(1, cache.getEvictedCount());
+    }
+
+    @Test
+    public void evictsBeyondByteLimit() {
+        cache.put("a", new MqttMessage(new byte[60]));
+        cache.put("b", new MqttMessage(new byte[60]));
+
+        assertEquals(1, cache.size());
+        assertEquals(60, cache.getByteCount());
+        assertTrue(cache.matching("a").isEmpty());
+    }
+
+    @Test
+    public void emptyMessageClearsTopic() {
+        cache.put("a", new MqttMessage("1".getBytes()));
+        cache.put("a", new MqttMessage(new byte[0]));
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getByteCount());
+    }
+}
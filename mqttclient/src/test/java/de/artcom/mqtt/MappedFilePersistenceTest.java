@@ -0,0 +1,157 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedFilePersistenceTest {
+    private static final String clientId = "client";
+    private static final String serverUri = "tcp://localhost:1883";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedFilePersistence persistence;
+
+    @Before
+    public void setup() throws MqttPersistenceException {
+        persistence = open(1024);
+    }
+
+    @After
+    public void teardown() throws MqttPersistenceException {
+        persistence.close();
+    }
+
+    @Test
+    public void storesAndRemovesEntries() throws MqttPersistenceException {
+        persistence.put("s-1", new Persistable("header", "payload"));
+        persistence.put("s-2", new Persistable("header2", ""));
+
+        assertTrue(persistence.containsKey("s-1"));
+        assertEquals("header", new String(persistence.get("s-1").getHeaderBytes()));
+        assertEquals("payload", new String(persistence.get("s-1").getPayloadBytes()));
+        assertEquals(0, persistence.get("s-2").getPayloadLength());
+
+        persistence.remove("s-1");
+        assertFalse(persistence.containsKey("s-1"));
+        assertNull(persistence.get("s-1"));
+        assertEquals(Collections.singletonList("s-2"), Collections.list(persistence.keys()));
+    }
+
+    @Test
+    public void recoversAfterReopen() throws MqttPersistenceException {
+        persistence.put("s-1", new Persistable("first", "1"));
+        persistence.put("s-2", new Persistable("second", "2"));
+        persistence.put("s-1", new Persistable("updated", "3"));
+        persistence.remove("s-2");
+        persistence.close();
+
+        persistence = open(1024);
+        List<?> keys = Collections.list(persistence.keys());
+        assertEquals(Collections.singletonList("s-1"), keys);
+        assertEquals("updated", new String(persistence.get("s-1").getHeaderBytes()));
+    }
+
+    @Test
+    public void deletesAndCompactsOldSegments() throws MqttPersistenceException {
+        persistence.put("kept", new Persistable("kept", "payload"));
+        for (int i = 0; i < 100; i++) {
+            persistence.put("s-" + i, new Persistable("header", "some payload"));
+            persistence.remove("s-" + i);
+        }
+
+        assertEquals(1, persistence.getSegmentCount());
+        assertEquals("kept", new String(persistence.get("kept").getHeaderBytes()));
+
+        persistence.close();
+        persistence = open(1024);
+        assertEquals(Collections.singletonList("kept"), Collections.list(persistence.keys()));
+    }
+
+    @Test
+    public void ignoresTornRecord() throws Exception {
+        persistence.put("s-1", new Persistable("header", "payload"));
+        persistence.put("s-2", new Persistable("header", "payload"));
+        persistence.close();
+
+        File segment = folder.getRoot().listFiles()[0].listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // corrupt the last byte of the second record, each one takes 8 + 27 bytes
+            file.seek(2 * 35 - 1);
+            file.write('x');
+        }
+
+        persistence = open(1024);
+        assertEquals(Collections.singletonList("s-1"), Collections.list(persistence.keys()));
+
+        persistence.put("s-3", new Persistable("header", "payload"));
+        persistence.close();
+        persistence = open(1024);
+        assertTrue(persistence.containsKey("s-3"));
+    }
+
+    @Test
+    public void storesRecordsLargerThanSegment() throws MqttPersistenceException {
+        String large = new String(new char[4096]).replace('\0', 'x');
+        persistence.put("large", new Persistable("header", large));
+        assertEquals(large, new String(persistence.get("large").getPayloadBytes()));
+    }
+
+    private MappedFilePersistence open(int segmentSize) throws MqttPersistenceException {
+        MappedFilePersistence persistence = new MappedFilePersistence(folder.getRoot().getPath(), segmentSize, false);
+        persistence.open(clientId, serverUri);
+        return persistence;
+    }
+
+    private static class Persistable implements MqttPersistable {
+        private final byte[] header;
+        private final byte[] payload;
+
+        Persistable(String header, String payload) {
+            this.header = header.getBytes();
+            this.payload = payload.getBytes();
+        }
+
+        @Override
+        public byte[] getHeaderBytes() {
+            return header;
+        }
+
+        @Override
+        public int getHeaderLength() {
+            return header.length;
+        }
+
+        @Override
+        public int getHeaderOffset() {
+            return 0;
+        }
+
+        @Override
+        public byte[] getPayloadBytes() {
+            return payload;
+        }
+
+        @Override
+        public int getPayloadLength() {
+            return payload.length;
+        }
+
+        @Override
+        public int getPayloadOffset() {
+            return 0;
+        }
+    }
+}
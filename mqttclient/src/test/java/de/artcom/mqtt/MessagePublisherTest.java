@@ -0,0 +1,159 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MessagePublisherTest {
+    private IMqttAsyncClient mockClient;
+    private Client client;
+
+    static class RecordingSubscriber implements Subscriber<Integer> {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+        Subscription subscription;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Integer value) {
+            received.add(value);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+    }
+
+    @Test
+    public void emitsOnlyRequestedMessages() throws Exception {
+        RecordingSubscriber subscriber = subscribe(10, MessagePublisher.OverflowPolicy.DROP_OLDEST);
+        verify(mockClient).subscribe("numbers/+", 1);
+
+        arrive("numbers/a", 1);
+        arrive("numbers/a", 2);
+        arrive("numbers/a", 3);
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList(1, 2), subscriber.received);
+
+        subscriber.subscription.request(5);
+        arrive("numbers/a", 4);
+        assertEquals(Arrays.asList(1, 2, 3, 4), subscriber.received);
+    }
+
+    @Test
+    public void dropsOldestWhenBufferIsFull() throws Exception {
+        MessagePublisher<Integer> publisher = client.subscribe("numbers/+", Integer.class, 1, 2, MessagePublisher.OverflowPolicy.DROP_OLDEST);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        arrive("numbers/a", 1);
+        arrive("numbers/a", 2);
+        arrive("numbers/a", 3);
+        subscriber.subscription.request(10);
+
+        assertEquals(Arrays.asList(2, 3), subscriber.received);
+        assertEquals(1, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void conflatesMessagesOfSameTopic() throws Exception {
+        MessagePublisher<Integer> publisher = client.subscribe("numbers/+", Integer.class, 1, 2, MessagePublisher.OverflowPolicy.CONFLATE);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        arrive("numbers/a", 1);
+        arrive("numbers/b", 2);
+        arrive("numbers/a", 3);
+        subscriber.subscription.request(10);
+
+        assertEquals(Arrays.asList(3, 2), subscriber.received);
+        assertEquals(1, publisher.getConflatedCount());
+    }
+
+    @Test
+    public void pausesDeliveryUntilDemand() throws Exception {
+        RecordingSubscriber subscriber = subscribe(1, MessagePublisher.OverflowPolicy.PAUSE);
+        arrive("numbers/a", 1);
+
+        final CountDownLatch delivered = new CountDownLatch(1);
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    arrive("numbers/a", 2);
+                    delivered.countDown();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        receiver.start();
+
+        assertFalse(delivered.await(100, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(2);
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2), subscriber.received);
+    }
+
+    @Test
+    public void unsubscribesOnCancel() throws Exception {
+        RecordingSubscriber subscriber = subscribe(10, MessagePublisher.OverflowPolicy.DROP_OLDEST);
+        subscriber.subscription.request(10);
+        subscriber.subscription.cancel();
+
+        verify(mockClient).unsubscribe("numbers/+");
+        arrive("numbers/a", 1);
+        assertTrue(subscriber.received.isEmpty());
+    }
+
+    @Test
+    public void failsOnNonPositiveRequest() throws Exception {
+        RecordingSubscriber subscriber = subscribe(10, MessagePublisher.OverflowPolicy.DROP_OLDEST);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        verify(mockClient).unsubscribe("numbers/+");
+    }
+
+    private RecordingSubscriber subscribe(int bufferSize, MessagePublisher.OverflowPolicy policy) {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        client.subscribe("numbers/+", Integer.class, 1, bufferSize, policy).subscribe(subscriber);
+        return subscriber;
+    }
+
+    private void arrive(String topic, int value) throws Exception {
+        client.messageArrived(topic, new MqttMessage(String.valueOf(value).getBytes()));
+    }
+}
@@ -0,0 +1,145 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class OfflineBufferTest {
+    private IMqttAsyncClient mockClient;
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+    }
+
+    @Test
+    public void rejectsWhenFull() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(2, 1024, OfflineBuffer.OverflowPolicy.REJECT);
+        buffer.add("a", new byte[1], 1, false, null);
+        buffer.add("b", new byte[1], 1, false, null);
+
+        try {
+            buffer.add("c", new byte[1], 1, false, null);
+            fail("Expected the buffer to be full");
+        } catch (MqttException e) {
+            assertEquals(MqttException.REASON_CODE_DISCONNECTED_BUFFER_FULL, e.getReasonCode());
+        }
+
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void dropsOldestWhenBytesExceeded() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(10, 10, OfflineBuffer.OverflowPolicy.DROP_OLDEST);
+        IMqttActionListener dropped = mock(IMqttActionListener.class);
+
+        buffer.add("a", new byte[6], 1, false, dropped);
+        buffer.add("b", new byte[6], 1, false, null);
+
+        assertEquals(1, buffer.size());
+        assertEquals(6, buffer.getByteCount());
+        assertEquals(1, buffer.getDroppedCount());
+        verify(dropped).onFailure(any(IMqttToken.class), any(MqttException.class));
+    }
+
+    @Test
+    public void keepsLatestPerTopic() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(2, 1024, OfflineBuffer.OverflowPolicy.LATEST_PER_TOPIC);
+        byte[] latest = new byte[]{3};
+
+        buffer.add("a", new byte[]{1}, 1, false, null);
+        buffer.add("b", new byte[]{2}, 1, false, null);
+        buffer.add("b", latest, 1, false, null);
+        buffer.drain(mockClient, 10);
+
+        verify(mockClient).publish(eq("a"), any(byte[].class), eq(1), eq(false), isNull(), any(IMqttActionListener.class));
+        verify(mockClient).publish(eq("b"), same(latest), eq(1), eq(false), isNull(), any(IMqttActionListener.class));
+        verifyNoMoreInteractions(ignoreStubs(mockClient));
+    }
+
+    @Test
+    public void drainsInOrderWithinWindow() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1024, OfflineBuffer.OverflowPolicy.REJECT);
+        for (int i = 0; i < 5; i++) {
+            buffer.add("topic/" + i, new byte[1], 1, false, null);
+        }
+
+        buffer.drain(mockClient, 2);
+        ArgumentCaptor<IMqttActionListener> listeners = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(mockClient, times(2)).publish(anyString(), any(byte[].class), anyInt(), anyBoolean(), isNull(), listeners.capture());
+        assertEquals(3, buffer.size());
+
+        // each completion makes room for the next message
+        List<IMqttActionListener> inFlight = listeners.getAllValues();
+        inFlight.get(0).onSuccess(mock(IMqttToken.class));
+        inFlight.get(1).onSuccess(mock(IMqttToken.class));
+        assertEquals(1, buffer.size());
+
+        InOrder order = inOrder(mockClient);
+        for (int i = 0; i < 4; i++) {
+            order.verify(mockClient).publish(eq("topic/" + i), any(byte[].class), anyInt(), anyBoolean(), isNull(), any(IMqttActionListener.class));
+        }
+    }
+
+    @Test
+    public void requeuesWhenConnectionDrops() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1024, OfflineBuffer.OverflowPolicy.REJECT);
+        buffer.add("a", new byte[1], 1, false, null);
+        buffer.add("b", new byte[1], 1, false, null);
+
+        when(mockClient.publish(anyString(), any(byte[].class), anyInt(), anyBoolean(), isNull(), any(IMqttActionListener.class)))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+        buffer.drain(mockClient, 10);
+
+        assertEquals(2, buffer.size());
+        verify(mockClient, times(1)).publish(eq("a"), any(byte[].class), anyInt(), anyBoolean(), isNull(), any(IMqttActionListener.class));
+    }
+
+    @Test
+    public void resumesOnAnyCompletionAfterPahoInFlightLimit() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1024, OfflineBuffer.OverflowPolicy.REJECT);
+        Client client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+        client.setOfflineBuffer(buffer);
+        buffer.add("a", new byte[1], 1, false, null);
+
+        // paho's slots are taken by messages sent outside of the buffer
+        when(mockClient.publish(anyString(), any(byte[].class), anyInt(), anyBoolean(), isNull(), any(IMqttActionListener.class)))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT))
+                .thenReturn(null);
+        buffer.drain(mockClient, 10);
+        assertEquals(1, buffer.size());
+
+        client.deliveryComplete(mock(IMqttDeliveryToken.class));
+        assertEquals(0, buffer.size());
+        verify(mockClient, times(2)).publish(eq("a"), any(byte[].class), anyInt(), anyBoolean(), isNull(), any(IMqttActionListener.class));
+    }
+
+    @Test
+    public void reportsFillLevel() throws MqttException {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1024, OfflineBuffer.OverflowPolicy.REJECT);
+        OfflineBuffer.Listener listener = mock(OfflineBuffer.Listener.class);
+        buffer.setListener(listener);
+
+        buffer.add("a", new byte[4], 1, false, null);
+        buffer.add("b", new byte[4], 1, false, null);
+        buffer.drain(mockClient, 10);
+
+        InOrder order = inOrder(listener);
+        order.verify(listener).onFillLevelChanged(1, 4);
+        order.verify(listener).onFillLevelChanged(2, 8);
+        order.verify(listener).onFillLevelChanged(0, 0);
+    }
+}
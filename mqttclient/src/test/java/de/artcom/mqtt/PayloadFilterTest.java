@@ -0,0 +1,143 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class PayloadFilterTest {
+    private static final JsonFactory JSON = Codec.JSON.getFactory();
+
+    private IMqttAsyncClient mockClient;
+    private Client client;
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+    }
+
+    @Test
+    public void matchesNestedFieldAndArrayElement() throws Exception {
+        byte[] payload = "{\"skip\":{\"deviceId\":\"b\"},\"device\":{\"ids\":[\"x\",\"a\"]},\"temp\":21.5}".getBytes();
+
+        assertTrue(PayloadFilter.equalTo("/device/ids/1", "a").accept(JSON, payload));
+        assertFalse(PayloadFilter.equalTo("/device/ids/0", "a").accept(JSON, payload));
+        assertFalse(PayloadFilter.equalTo("/device/ids/2", "a").accept(JSON, payload));
+        assertFalse(PayloadFilter.equalTo("/deviceId", "b").accept(JSON, payload));
+        assertTrue(PayloadFilter.between("/temp", 20, 22).accept(JSON, payload));
+        assertFalse(PayloadFilter.between("/temp", 22, 30).accept(JSON, payload));
+    }
+
+    @Test
+    public void comparesValueTypes() throws Exception {
+        byte[] payload = "{\"count\":3,\"on\":true,\"off\":null,\"text\":\"3\"}".getBytes();
+
+        assertTrue(PayloadFilter.equalTo("/count", 3).accept(JSON, payload));
+        assertTrue(PayloadFilter.equalTo("/count", 3.0).accept(JSON, payload));
+        assertFalse(PayloadFilter.equalTo("/count", "3").accept(JSON, payload));
+        assertTrue(PayloadFilter.equalTo("/on", true).accept(JSON, payload));
+        assertTrue(PayloadFilter.equalTo("/off", null).accept(JSON, payload));
+        assertFalse(PayloadFilter.equalTo("/text", 3).accept(JSON, payload));
+    }
+
+    @Test
+    public void combinesFilters() throws Exception {
+        byte[] payload = "{\"id\":\"a\"}".getBytes();
+
+        assertTrue(PayloadFilter.allOf(PayloadFilter.maxSize(20), PayloadFilter.equalTo("/id", "a")).accept(JSON, payload));
+        assertFalse(PayloadFilter.allOf(PayloadFilter.maxSize(5), PayloadFilter.equalTo("/id", "a")).accept(JSON, payload));
+    }
+
+    @Test
+    public void filtersBeforeDecoding() throws Exception {
+        final List<String> decoded = new ArrayList<>();
+        final List<String> malformed = new ArrayList<>();
+        MessageCallback<Map<String, Object>> callback = new MessageCallback<Map<String, Object>>() {
+            @Override
+            public void onMessage(String topic, Map<String, Object> payload, MqttMessage message) {
+                decoded.add(topic);
+            }
+
+            @Override
+            public void onParseError(IOException error, MqttMessage message) {
+                malformed.add(new String(message.getPayload()));
+            }
+        };
+        SubscriptionOptions options = new SubscriptionOptions();
+        options.setFilter(PayloadFilter.equalTo("/id", "a"));
+        client.subscribe("devices/+", callback, options);
+
+        client.messageArrived("devices/1", new MqttMessage("{\"id\":\"a\"}".getBytes()));
+        client.messageArrived("devices/2", new MqttMessage("{\"id\":\"b\"}".getBytes()));
+        client.messageArrived("devices/3", new MqttMessage("{".getBytes()));
+
+        assertEquals(Collections.singletonList("devices/1"), decoded);
+        assertEquals(Collections.singletonList("{"), malformed);
+        assertEquals(1, client.getFilteredMessageCount());
+    }
+
+    @Test
+    public void sharesDecodedPayloadBehindFilter() throws Exception {
+        final List<Object> payloads = new ArrayList<>();
+        SubscriptionOptions options = new SubscriptionOptions();
+        options.setFilter(PayloadFilter.equalTo("/id", "a"));
+        for (int i = 0; i < 2; i++) {
+            client.subscribe("devices/+", new MessageCallback<Map<String, Object>>() {
+                @Override
+                public void onMessage(String topic, Map<String, Object> payload, MqttMessage message) {
+                    payloads.add(payload);
+                }
+            }, options);
+        }
+
+        client.setSharedPayloadDecoding(true);
+        client.messageArrived("devices/1", new MqttMessage("{\"id\":\"a\"}".getBytes()));
+
+        assertEquals(2, payloads.size());
+        assertSame(payloads.get(0), payloads.get(1));
+    }
+
+    @Test
+    public void reportsFilteredMessagesByMetricsFilter() throws Exception {
+        ClientMetricsTest.RecordingMetrics metrics = new ClientMetricsTest.RecordingMetrics();
+        client.setMetrics(metrics, "devices/#");
+        SubscriptionOptions options = new SubscriptionOptions();
+        options.setFilter(PayloadFilter.equalTo("/id", "a"));
+        client.subscribe("devices/+", mock(IMessageCallback.class), options);
+
+        client.messageArrived("devices/2", new MqttMessage("{\"id\":\"b\"}".getBytes()));
+
+        assertTrue(metrics.events.contains("filtered devices/#"));
+    }
+
+    @Test
+    public void usesCodecOfTopic() throws Exception {
+        client.setCodec("devices/#", Codec.CBOR);
+        IMessageCallback callback = mock(IMessageCallback.class);
+        SubscriptionOptions options = new SubscriptionOptions();
+        options.setFilter(PayloadFilter.equalTo("/id", "a"));
+        client.subscribe("devices/+", callback, options);
+
+        ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+        client.messageArrived("devices/1", new MqttMessage(cbor.writeValueAsBytes(Collections.singletonMap("id", "a"))));
+        client.messageArrived("devices/2", new MqttMessage(cbor.writeValueAsBytes(Collections.singletonMap("id", "b"))));
+
+        verify(callback).onRawMessage(eq("devices/1"), any(MqttMessage.class));
+        verify(callback, never()).onRawMessage(eq("devices/2"), any(MqttMessage.class));
+    }
+}
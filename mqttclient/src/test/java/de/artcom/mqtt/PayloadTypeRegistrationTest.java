@@ -0,0 +1,92 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PayloadTypeRegistrationTest {
+    private static final AtomicInteger created = new AtomicInteger();
+
+    public static class Reading {
+        private final double value;
+
+        @JsonCreator
+        public Reading(@JsonProperty("value") double value) {
+            this.value = value;
+            created.incrementAndGet();
+        }
+    }
+
+    private static class CountingFactory extends JsonFactory {
+        private final AtomicInteger copies = new AtomicInteger();
+
+        @Override
+        public JsonFactory copy() {
+            copies.incrementAndGet();
+            return new JsonFactory();
+        }
+    }
+
+    private Client client;
+
+    @Before
+    public void setup() {
+        IMqttAsyncClient mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+        created.set(0);
+    }
+
+    @Test
+    public void buildsMappersForCodecsSetBeforeAndAfter() {
+        CountingFactory before = new CountingFactory();
+        client.setCodec("a/#", new Codec("before", before));
+        client.registerPayloadType(Reading.class);
+        assertEquals(2, before.copies.get());
+
+        CountingFactory after = new CountingFactory();
+        client.setCodec("b/#", new Codec("after", after));
+        assertEquals(2, after.copies.get());
+
+        client.registerPayloadType(String.class);
+        assertEquals(2, before.copies.get());
+        assertEquals(2, after.copies.get());
+    }
+
+    @Test
+    public void warmsUpWithSampleForEveryCodec() {
+        client.setCodec("cbor/#", Codec.CBOR);
+        client.registerPayloadType(Reading.class, new Reading(21.5), 10);
+
+        assertEquals(1 + 2 * 10, created.get());
+    }
+
+    @Test
+    public void survivesUnserializableSample() throws Exception {
+        client.registerPayloadType(Reading.class, new Object(), 10);
+        assertEquals(0, created.get());
+
+        final List<Double> values = new ArrayList<>();
+        client.subscribe("readings", new MessageCallback<Reading>() {
+            @Override
+            public void onMessage(String topic, Reading payload, MqttMessage message) {
+                values.add(payload.value);
+            }
+        });
+        client.messageArrived("readings", new MqttMessage("{\"value\":21.5}".getBytes()));
+
+        assertEquals(Collections.singletonList(21.5), values);
+    }
+}
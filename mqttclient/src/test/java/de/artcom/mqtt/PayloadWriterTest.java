@@ -0,0 +1,46 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PayloadWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PayloadWriter writer = new PayloadWriter(objectMapper);
+
+    @Test
+    public void writesSameBytesAsObjectMapper() throws Exception {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("id", "sensor-42");
+        payload.put("values", Arrays.asList(1, 2, 3));
+
+        assertArrayEquals(objectMapper.writeValueAsBytes(payload), writer.write(payload));
+        assertArrayEquals(objectMapper.writeValueAsBytes("text"), writer.write("text"));
+        assertArrayEquals(objectMapper.writeValueAsBytes(null), writer.write(null));
+    }
+
+    @Test
+    public void returnsIndependentArrays() throws Exception {
+        byte[] first = writer.write(Collections.singletonMap("value", 1));
+        byte[] second = writer.write(Collections.singletonMap("value", 2));
+
+        assertEquals("{\"value\":1}", new String(first, "UTF-8"));
+        assertEquals("{\"value\":2}", new String(second, "UTF-8"));
+    }
+
+    @Test
+    public void writesPayloadsLargerThanRetainedBuffer() throws Exception {
+        char[] chars = new char[PayloadWriter.MAX_RETAINED_BUFFER_SIZE * 2];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        assertEquals(large.length() + 2, writer.write(large).length);
+        assertEquals("\"small\"", new String(writer.write("small"), "UTF-8"));
+    }
+}
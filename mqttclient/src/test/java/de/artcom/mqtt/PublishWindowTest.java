@@ -0,0 +1,224 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class PublishWindowTest {
+    private IMqttAsyncClient mockClient;
+    private PublishWindow window;
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        window = new PublishWindow(mockClient, 2);
+    }
+
+    @Test
+    public void holdsPublishesBeyondWindow() throws MqttException {
+        window.publish("a", new MqttMessage());
+        window.publish("b", new MqttMessage());
+        window.publish("c", new MqttMessage());
+
+        verify(mockClient, times(2)).publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class));
+        assertEquals(2, window.getInFlightCount());
+        assertEquals(1, window.getWaitingCount());
+    }
+
+    @Test
+    public void failsBeyondWaitingLimit() throws Exception {
+        window.setWaitingLimit(1);
+        window.publish("a", new MqttMessage());
+        window.publish("b", new MqttMessage());
+        PublishFuture waiting = window.publish("c", new MqttMessage());
+        PublishFuture rejected = window.publish("d", new MqttMessage());
+
+        assertFalse(waiting.isDone());
+        assertTrue(rejected.isDone());
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(MqttException.REASON_CODE_MAX_INFLIGHT, ((MqttException) e.getCause()).getReasonCode());
+        }
+        assertEquals(1, window.getWaitingCount());
+    }
+
+    @Test
+    public void blocksBeyondWaitingLimit() throws Exception {
+        window.setWaitingLimit(1);
+        window.setBlocking(true);
+        window.publish("a", new MqttMessage());
+        window.publish("b", new MqttMessage());
+        window.publish("c", new MqttMessage());
+
+        final PublishFuture[] admitted = new PublishFuture[1];
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                admitted[0] = window.publish("d", new MqttMessage());
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        // the acknowledgement sends "c", which makes room for "d"
+        ArgumentCaptor<Object> context = ArgumentCaptor.forClass(Object.class);
+        verify(mockClient, times(2)).publish(anyString(), any(MqttMessage.class), context.capture(), any(IMqttActionListener.class));
+        IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        when(token.getUserContext()).thenReturn(context.getAllValues().get(0));
+        window.deliveryComplete(token);
+
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertFalse(admitted[0].isDone());
+        assertEquals(1, window.getWaitingCount());
+    }
+
+    @Test
+    public void handsOverToOfflineBufferWhileDisconnected() throws Exception {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1000, OfflineBuffer.OverflowPolicy.REJECT);
+        window.setOfflineBuffer(buffer);
+        when(mockClient.isConnected()).thenReturn(false);
+
+        PublishFuture future = window.publish("a", new MqttMessage("1".getBytes()));
+
+        assertFalse(future.isDone());
+        assertEquals(1, buffer.size());
+        assertEquals(0, window.getInFlightCount());
+        verify(mockClient, never()).publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class));
+
+        when(mockClient.isConnected()).thenReturn(true);
+        buffer.drain(mockClient, 10);
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(mockClient).publish(eq("a"), any(byte[].class), eq(1), eq(false), any(), listener.capture());
+        IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        listener.getValue().onSuccess(token);
+
+        assertSame(token, future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void handsOverToOfflineBufferOnConnectionLoss() throws Exception {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1000, OfflineBuffer.OverflowPolicy.REJECT);
+        window.setOfflineBuffer(buffer);
+        when(mockClient.publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class)))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+
+        PublishFuture future = window.publish("a", new MqttMessage());
+
+        assertFalse(future.isDone());
+        assertEquals(1, buffer.size());
+        assertEquals(0, window.getInFlightCount());
+    }
+
+    @Test
+    public void completesThroughDeliveryComplete() throws Exception {
+        PublishFuture first = window.publish("a", new MqttMessage());
+        window.publish("b", new MqttMessage());
+        window.publish("c", new MqttMessage());
+
+        IMqttDeliveryToken token = tokenFor(first);
+        window.deliveryComplete(token);
+
+        assertTrue(first.isDone());
+        assertSame(token, first.get(1, TimeUnit.SECONDS));
+        verify(mockClient).publish(eq("c"), any(MqttMessage.class), any(), any(IMqttActionListener.class));
+        assertEquals(2, window.getInFlightCount());
+        assertEquals(0, window.getWaitingCount());
+    }
+
+    @Test
+    public void failsThroughActionListener() throws MqttException, InterruptedException {
+        PublishFuture future = window.publish("a", new MqttMessage());
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(mockClient).publish(eq("a"), any(MqttMessage.class), same(future), listener.capture());
+
+        IMqttActionListener userListener = mock(IMqttActionListener.class);
+        future.addListener(userListener);
+
+        MqttException cause = new MqttException(MqttException.REASON_CODE_CONNECTION_LOST);
+        listener.getValue().onFailure(tokenFor(future), cause);
+
+        try {
+            future.get();
+            fail("Expected the publish to fail");
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+
+        verify(userListener).onFailure(any(IMqttToken.class), same(cause));
+        assertEquals(0, window.getInFlightCount());
+    }
+
+    @Test
+    public void retriesWhenPahoInFlightLimitIsReached() throws MqttException {
+        when(mockClient.publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class)))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT))
+                .thenReturn(null);
+
+        PublishFuture future = window.publish("a", new MqttMessage());
+        assertFalse(future.isDone());
+        assertEquals(1, window.getWaitingCount());
+
+        // any acknowledgement frees a paho slot
+        window.deliveryComplete(mock(IMqttDeliveryToken.class));
+        assertEquals(0, window.getWaitingCount());
+        assertEquals(1, window.getInFlightCount());
+    }
+
+    @Test
+    public void queuesOneQos0PublishInPahoAtATime() throws MqttException {
+        MqttMessage message = new MqttMessage();
+        message.setQos(0);
+
+        PublishFuture first = window.publish("a", message);
+        window.publish("b", message);
+        verify(mockClient, times(1)).publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class));
+
+        window.deliveryComplete(tokenFor(first));
+        verify(mockClient, times(2)).publish(anyString(), any(MqttMessage.class), any(), any(IMqttActionListener.class));
+        assertEquals(1, window.getInFlightCount());
+    }
+
+    @Test
+    public void cancelsWaitingPublish() {
+        window.publish("a", new MqttMessage());
+        window.publish("b", new MqttMessage());
+        PublishFuture waiting = window.publish("c", new MqttMessage());
+
+        assertTrue(waiting.cancel(false));
+        assertTrue(waiting.isCancelled());
+        assertEquals(0, window.getWaitingCount());
+    }
+
+    @Test
+    public void recordsAckLatency() {
+        PublishFuture future = window.publish("a", new MqttMessage());
+        window.deliveryComplete(tokenFor(future));
+
+        assertTrue(window.getMaxAckNanos() > 0);
+        assertEquals(window.getMaxAckNanos(), window.getAverageAckNanos());
+    }
+
+    private static IMqttDeliveryToken tokenFor(PublishFuture future) {
+        IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        when(token.getUserContext()).thenReturn(future);
+        return token;
+    }
+}
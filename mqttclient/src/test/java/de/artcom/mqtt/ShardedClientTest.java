@@ -0,0 +1,106 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ShardedClientTest {
+    private static final int SHARDS = 4;
+
+    private List<IMqttAsyncClient> mockClients;
+    private ConnectionCallback connectionCallback;
+    private ShardedClient client;
+
+    @Before
+    public void setup() {
+        mockClients = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            IMqttAsyncClient mockClient = mock(IMqttAsyncClient.class);
+            when(mockClient.isConnected()).thenReturn(true);
+            mockClients.add(mockClient);
+        }
+
+        connectionCallback = mock(ConnectionCallback.class);
+        client = new ShardedClient(mockClients, connectionCallback, 2, true);
+    }
+
+    @Test
+    public void routesTopicToSameShard() throws MqttException {
+        IMessageCallback callback = mock(IMessageCallback.class);
+        client.subscribe("sensors/a", callback);
+        client.publish("sensors/a", new byte[1], 1, false, null);
+
+        IMqttAsyncClient shard = mockClients.get(client.getShards().indexOf(client.shardFor("sensors/a")));
+        verify(shard).subscribe("sensors/a", 2);
+        verify(shard).publish(eq("sensors/a"), any(byte[].class), eq(1), eq(false), any(), any(IMqttActionListener.class));
+
+        for (IMqttAsyncClient other : mockClients) {
+            if (other != shard) {
+                verify(other, never()).subscribe(anyString(), anyInt());
+            }
+        }
+    }
+
+    @Test
+    public void spreadsTopicsOverShards() {
+        boolean[] used = new boolean[SHARDS];
+        for (int i = 0; i < 100; i++) {
+            used[client.getShards().indexOf(client.shardFor("sensors/" + i))] = true;
+        }
+
+        for (boolean isUsed : used) {
+            assertTrue(isUsed);
+        }
+    }
+
+    @Test
+    public void reportsConnectOnceAllShardsAreConnected() {
+        for (int i = 0; i < SHARDS - 1; i++) {
+            client.getShards().get(i).onSuccess(mock(IMqttToken.class));
+        }
+
+        verify(connectionCallback, never()).onConnect();
+        assertFalse(client.isConnected());
+
+        client.getShards().get(SHARDS - 1).onSuccess(mock(IMqttToken.class));
+        verify(connectionCallback).onConnect();
+        assertTrue(client.isConnected());
+    }
+
+    @Test
+    public void coordinatesReconnectAcrossShards() throws MqttException {
+        for (Client shard : client.getShards()) {
+            shard.onSuccess(mock(IMqttToken.class));
+        }
+
+        for (int i = 0; i < SHARDS; i++) {
+            when(mockClients.get(i).isConnected()).thenReturn(false);
+            client.getShards().get(i).connectionLost(new Exception());
+        }
+
+        // a single disconnect is reported for the whole client
+        verify(connectionCallback, times(1)).onDisconnect(any(Throwable.class));
+
+        // the first shard back makes the others retry without waiting out their backoff
+        when(mockClients.get(0).isConnected()).thenReturn(true);
+        client.getShards().get(0).onSuccess(mock(IMqttToken.class));
+        verify(mockClients.get(1), timeout(500)).connect(any(MqttConnectOptions.class), any(), any(IMqttActionListener.class));
+
+        for (int i = 1; i < SHARDS; i++) {
+            client.getShards().get(i).onSuccess(mock(IMqttToken.class));
+        }
+
+        verify(connectionCallback).onReconnect();
+    }
+}
@@ -0,0 +1,119 @@
+package de.artcom.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class SharedPayloadsTest {
+    private static final String topic = "testTopic";
+    private static final byte[] json = "{\"foo\":\"foo\",\"bar\":1234}".getBytes();
+    private static final byte[] nestedJson = "{\"foo\":\"foo\",\"nested\":{\"baz\":[1,2,3]},\"bar\":1234}".getBytes();
+
+    private Client client;
+    private final List<Object> received = new ArrayList<>();
+
+    static class PayloadClass {
+        public String foo;
+        public int bar;
+
+        @JsonCreator
+        PayloadClass(@JsonProperty("foo") String foo, @JsonProperty("bar") int bar) {
+            this.foo = foo;
+            this.bar = bar;
+        }
+    }
+
+    class FirstCallback extends MessageCallback<PayloadClass> {
+        @Override
+        public void onMessage(String topic, PayloadClass payload, MqttMessage message) {
+            received.add(payload);
+        }
+    }
+
+    class SecondCallback extends MessageCallback<PayloadClass> {
+        @Override
+        public void onMessage(String topic, PayloadClass payload, MqttMessage message) {
+            received.add(payload);
+        }
+    }
+
+    @Before
+    public void setup() throws MqttException {
+        client = new Client("tcp://localhost:1883", "test", mock(ConnectionCallback.class));
+    }
+
+    @Test
+    public void sharesPayloadBetweenCallbacks() throws Exception {
+        client.setSharedPayloadDecoding(true);
+        client.subscribe(topic, new FirstCallback());
+        client.subscribe(topic, new SecondCallback());
+
+        client.messageArrived(topic, new MqttMessage(json));
+
+        assertEquals(2, received.size());
+        assertSame(received.get(0), received.get(1));
+    }
+
+    @Test
+    public void decodesPerCallbackByDefault() throws Exception {
+        client.subscribe(topic, new FirstCallback());
+        client.subscribe(topic, new SecondCallback());
+
+        client.messageArrived(topic, new MqttMessage(json));
+
+        assertEquals(2, received.size());
+        assertNotSame(received.get(0), received.get(1));
+    }
+
+    @Test
+    public void keepsRawMessageOverrides() throws Exception {
+        client.setSharedPayloadDecoding(true);
+        client.subscribe(topic, new FirstCallback());
+        client.subscribe(topic, new FirstCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                received.add(message);
+            }
+        });
+
+        MqttMessage message = new MqttMessage(json);
+        client.messageArrived(topic, message);
+
+        assertEquals(2, received.size());
+        assertTrue(received.contains(message));
+    }
+
+    @Test
+    public void readsSingleJsonField() throws IOException {
+        JsonPayload payload = new JsonPayload(nestedJson);
+
+        assertEquals(1234, payload.get("bar").asInt());
+        assertEquals(3, payload.get("nested").get("baz").size());
+        assertNull(payload.get("missing"));
+        assertEquals("foo", payload.getNode().get("foo").asText());
+    }
+
+    @Test
+    public void deliversJsonPayload() throws Exception {
+        final JsonPayload[] actual = {null};
+        client.subscribe(topic, new MessageCallback<JsonPayload>() {
+            @Override
+            public void onMessage(String topic, JsonPayload payload, MqttMessage message) {
+                actual[0] = payload;
+            }
+        });
+
+        client.messageArrived(topic, new MqttMessage(json));
+        assertEquals("foo", actual[0].get("foo").asText());
+    }
+}
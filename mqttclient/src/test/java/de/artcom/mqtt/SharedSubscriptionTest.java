@@ -0,0 +1,106 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Mockito.*;
+
+public class SharedSubscriptionTest {
+    private static final String SHARED = "$share/workers/jobs/+";
+
+    private IMqttAsyncClient mockClient;
+    private SubscriptionHandler handler;
+    private IMessageCallback callback1;
+    private IMessageCallback callback2;
+
+    @Before
+    public void setup() {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        handler = new SubscriptionHandler(mockClient);
+
+        callback1 = mock(IMessageCallback.class);
+        callback2 = mock(IMessageCallback.class);
+    }
+
+    @Test
+    public void routesByFilterAfterGroup() throws MqttException {
+        handler.subscribe(SHARED, callback1);
+
+        verify(mockClient).subscribe(SHARED, 2);
+        assertEquals(1, handler.getCallbacks("jobs/render").size());
+        assertEquals(0, handler.getCallbacks("other/render").size());
+    }
+
+    @Test
+    public void rejectsPlainSubscriptionOfSharedFilter() throws MqttException {
+        handler.subscribe(SHARED, callback1);
+        try {
+            handler.subscribe("jobs/+", callback2);
+            fail("Expected the plain subscription to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        verify(mockClient, never()).subscribe("jobs/+", 2);
+        assertEquals(1, handler.getCallbacks("jobs/render").size());
+        assertSame(callback1, handler.getCallbacks("jobs/render").get(0));
+
+        // the filter is free again once the shared subscription is gone
+        handler.unsubscribe(SHARED, callback1);
+        handler.subscribe("jobs/+", callback2);
+        assertSame(callback2, handler.getCallbacks("jobs/render").get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSharedSubscriptionOfPlainFilter() throws MqttException {
+        handler.subscribe("jobs/+", callback2);
+        handler.subscribe(SHARED, callback1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSecondGroupOfSameFilter() throws MqttException {
+        handler.subscribe(SHARED, callback1);
+        handler.subscribe(SharedSubscription.filter("auditors", "jobs/+"), callback2);
+    }
+
+    @Test
+    public void addsCallbacksToSameGroup() throws MqttException {
+        handler.subscribe(SHARED, callback1);
+        handler.subscribe(SHARED, callback2);
+
+        assertEquals(2, handler.getCallbacks("jobs/render").size());
+    }
+
+    @Test
+    public void resubscribesWithShareGroup() throws MqttException {
+        handler.subscribe(SHARED, callback1);
+        handler.syncSubscriptions();
+
+        verify(mockClient).subscribe(aryEq(new String[]{SHARED}), aryEq(new int[]{2}));
+    }
+
+    @Test
+    public void matchesSharedFilters() {
+        assertTrue(SubscriptionHandler.matches("jobs/render", SHARED));
+        assertFalse(SubscriptionHandler.matches("workers/jobs/render", SHARED));
+    }
+
+    @Test
+    public void buildsFilter() {
+        assertEquals(SHARED, SharedSubscription.filter("workers", "jobs/+"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingFilter() throws MqttException {
+        handler.subscribe("$share/workers", callback1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWildcardGroup() {
+        SharedSubscription.filter("work+", "jobs/+");
+    }
+}
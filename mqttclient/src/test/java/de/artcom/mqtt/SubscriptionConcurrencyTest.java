@@ -0,0 +1,116 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SubscriptionConcurrencyTest {
+    private static final String[] FILTERS = {"foo/+", "foo/#", "foo/bar", "+/bar", "#", "foo/+/baz"};
+    private static final String[] TOPICS = {"foo/bar", "foo/baz", "foo/bar/baz", "bar"};
+    private static final int CHURN_THREADS = 4;
+    private static final long DURATION_MILLIS = 1000;
+
+    private SubscriptionHandler handler;
+    private IMessageCallback permanent;
+
+    @Before
+    public void setup() throws Exception {
+        IMqttAsyncClient mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        handler = new SubscriptionHandler(mockClient);
+
+        permanent = new NoopCallback();
+        handler.subscribe("foo/#", permanent);
+    }
+
+    @Test
+    public void dispatchSurvivesSubscriptionChurn() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong dispatched = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(CHURN_THREADS + 1);
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long count = 0;
+                    while (running.get()) {
+                        for (String topic : TOPICS) {
+                            List<IMessageCallback> callbacks = handler.getCallbacks(topic);
+                            if (topic.startsWith("foo/") && !callbacks.contains(permanent)) {
+                                throw new AssertionError("Permanent subscription missing for '" + topic + "'");
+                            }
+                            for (IMessageCallback callback : callbacks) {
+                                callback.onRawMessage(topic, null);
+                            }
+                            count++;
+                        }
+                    }
+                    dispatched.set(count);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(dispatcher);
+        for (int i = 0; i < CHURN_THREADS; i++) {
+            final Random random = new Random(i);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            String filter = FILTERS[random.nextInt(FILTERS.length)];
+                            IMessageCallback callback = new NoopCallback();
+                            handler.subscribe(filter, callback);
+                            handler.unsubscribe(filter, callback);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        Thread.sleep(DURATION_MILLIS);
+        running.set(false);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertNull(failure.get());
+        assertTrue(dispatched.get() > 0);
+        assertEquals(1, handler.getCallbacks("foo/bar").size());
+        assertEquals(0, handler.getCallbacks("bar").size());
+    }
+
+    private static class NoopCallback implements IMessageCallback {
+        @Override
+        public void onRawMessage(String topic, MqttMessage message) {}
+    }
+}
@@ -11,8 +11,11 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.*;
 
 public class SubscriptionHandlerTest {
@@ -69,6 +72,127 @@ public class SubscriptionHandlerTest {
         assertEquals(0, handler.getCallbacks(topic).size());
     }
 
+    @Test
+    public void unsubscribesFromWildcardTopic() throws MqttException {
+        handler.subscribe("foo/#", callback1);
+        handler.subscribe("foo/+", callback2);
+        assertEquals(2, handler.getCallbacks("foo/bar").size());
+
+        handler.unsubscribe("foo/#", callback1);
+        assertEquals(1, handler.getCallbacks("foo/bar").size());
+        assertEquals(0, handler.getCallbacks("foo").size());
+
+        handler.unsubscribe("foo/+", callback2);
+        assertEquals(0, handler.getCallbacks("foo/bar").size());
+    }
+
+    @Test
+    public void cachesResolvedCallbacks() throws MqttException {
+        handler.subscribe("foo/+", callback1);
+        handler.getCallbacks("foo/bar");
+        handler.getCallbacks("foo/bar");
+
+        assertEquals(1, handler.getTopicCache().getMissCount());
+        assertEquals(1, handler.getTopicCache().getHitCount());
+    }
+
+    @Test
+    public void invalidatesMatchingCachedTopics() throws MqttException {
+        handler.subscribe("foo/+", callback1);
+        handler.getCallbacks("foo/bar");
+        handler.getCallbacks("bar/baz");
+        assertEquals(2, handler.getTopicCache().size());
+
+        handler.subscribe("foo/#", callback2);
+        assertEquals(1, handler.getTopicCache().size());
+        assertEquals(2, handler.getCallbacks("foo/bar").size());
+
+        handler.unsubscribe("foo/+", callback1);
+        assertEquals(1, handler.getCallbacks("foo/bar").size());
+        assertEquals(0, handler.getCallbacks("bar/baz").size());
+    }
+
+    @Test
+    public void resubscribesInBatches() throws MqttException {
+        handler.setBatchSize(2);
+        handler.subscribe("a", callback1);
+        handler.subscribe("b", callback1);
+        handler.subscribe("c", callback1);
+
+        handler.syncSubscriptions();
+        verify(mockClient, times(1)).subscribe(aryEq(new String[]{"a", "b"}), aryEq(new int[]{2, 2}));
+        verify(mockClient, times(1)).subscribe(aryEq(new String[]{"c"}), aryEq(new int[]{2}));
+    }
+
+    @Test
+    public void unsubscribesPendingTopicsInBatch() throws MqttException {
+        handler.subscribe("a", callback1);
+        handler.subscribe("b", callback1);
+
+        when(mockClient.isConnected()).thenReturn(false);
+        handler.unsubscribe("a", callback1);
+        handler.unsubscribe("b", callback1);
+
+        handler.syncSubscriptions();
+        verify(mockClient, times(1)).unsubscribe(aryEq(new String[]{"a", "b"}));
+        verify(mockClient, never()).subscribe(any(String[].class), any(int[].class));
+    }
+
+    @Test
+    public void coalescesSubscriptions() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            handler.setCoalescing(scheduler, 50);
+            handler.subscribe("a", callback1);
+            handler.subscribe("b", callback1);
+            handler.subscribe("c", callback1);
+            handler.unsubscribe("c", callback1);
+            verify(mockClient, never()).subscribe(anyString(), anyInt());
+
+            handler.flushPendingSubscribes();
+            verify(mockClient, times(1)).subscribe(aryEq(new String[]{"a", "b"}), aryEq(new int[]{2, 2}));
+            verify(mockClient, never()).unsubscribe(anyString());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void subscribesWithRequestedQos() throws MqttException {
+        handler.subscribe(topic, callback1, 0);
+        verify(mockClient, times(1)).subscribe(topic, 0);
+    }
+
+    @Test
+    public void upgradesAndDowngradesQos() throws MqttException {
+        handler.subscribe(topic, callback1, 0);
+        handler.subscribe(topic, callback2, 1);
+        verify(mockClient, times(1)).subscribe(topic, 1);
+
+        handler.unsubscribe(topic, callback2);
+        verify(mockClient, times(2)).subscribe(topic, 0);
+        verify(mockClient, never()).unsubscribe(topic);
+    }
+
+    @Test
+    public void keepsQosWhenLowerQosCallbackIsAdded() throws MqttException {
+        handler.subscribe(topic, callback1, 1);
+        handler.subscribe(topic, callback2, 0);
+        handler.unsubscribe(topic, callback2);
+
+        verify(mockClient, times(1)).subscribe(anyString(), anyInt());
+    }
+
+    @Test
+    public void resubscribesWithQosPerFilter() throws MqttException {
+        handler.subscribe("a", callback1, 0);
+        handler.subscribe("b", callback1, 1);
+        handler.subscribe("b", callback2, 0);
+
+        handler.syncSubscriptions();
+        verify(mockClient, times(1)).subscribe(aryEq(new String[]{"a", "b"}), aryEq(new int[]{0, 1}));
+    }
+
     static class PayloadClass {
         public String foo;
         public int bar;
@@ -1,13 +1,24 @@
 package de.artcom.mqtt;
 
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 public class SubscriptionMatchTest {
     private static final Logger LOG = Logger.getLogger(SubscriptionMatchTest.class.getSimpleName());
@@ -30,8 +41,10 @@ public class SubscriptionMatchTest {
         matchingTopics.put("foo/#", new String[]{"foo/bar", "foo/bar/baz", "foo/bar/baz/bla"});
         matchingTopics.put("foo/+/#", new String[]{"foo/bar", "foo/bar/baz", "foo/bar/baz/bla"});
         matchingTopics.put("foo/+/baz/#", new String[]{"foo/bar/baz", "foo/bar/baz/bla"});
+        matchingTopics.put("foo/", new String[]{"foo/"});
+        matchingTopics.put("+/", new String[]{"foo/", "/"});
 
-        mismatchingTopics.put("foo", new String[]{"bar"});
+        mismatchingTopics.put("foo", new String[]{"bar", "foo/"});
         mismatchingTopics.put("/foo", new String[]{"foo", "/bar"});
         mismatchingTopics.put("+", new String[]{"foo/bar", "/foo"});
         mismatchingTopics.put("/+", new String[]{"foo", "/foo/bar"});
@@ -42,6 +55,8 @@ public class SubscriptionMatchTest {
         mismatchingTopics.put("foo/+/#", new String[]{"/", "foo"});
         mismatchingTopics.put("foo/+/baz/#", new String[]{"foo/bar/bla/baz"});
         mismatchingTopics.put("foo2.0", new String[]{"foo200"});
+        mismatchingTopics.put("foo/", new String[]{"foo", "foo/bar"});
+        mismatchingTopics.put("+/", new String[]{"foo", "foo/bar"});
     }
 
     @Test
@@ -71,4 +86,65 @@ public class SubscriptionMatchTest {
         }
         assertFalse(failed);
     }
+
+    @Test
+    public void topicTreeAgreesWithMatches() throws MqttException {
+        SubscriptionHandler handler = new SubscriptionHandler(mock(IMqttAsyncClient.class));
+        Map<IMessageCallback, String> filters = new HashMap<>();
+        for (String filter : matchingTopics.keySet()) {
+            filters.put(subscribe(handler, filter), filter);
+        }
+        for (String filter : mismatchingTopics.keySet()) {
+            if (!filters.containsValue(filter)) {
+                filters.put(subscribe(handler, filter), filter);
+            }
+        }
+
+        boolean failed = false;
+        for (String topic : allTopics()) {
+            List<IMessageCallback> callbacks = handler.getCallbacks(topic);
+            for (Map.Entry<IMessageCallback, String> entry : filters.entrySet()) {
+                boolean expected = SubscriptionHandler.matches(topic, entry.getValue());
+                if (expected != callbacks.contains(entry.getKey())) {
+                    failed = true;
+                    LOG.severe("Topic tree disagrees on topic '" + topic + "' and topic filter '" + entry.getValue() + "'");
+                }
+            }
+        }
+        assertFalse(failed);
+    }
+
+    @Test
+    public void keepsCallbacksOfFiltersDifferingInTrailingSlash() throws MqttException {
+        SubscriptionHandler handler = new SubscriptionHandler(mock(IMqttAsyncClient.class));
+        IMessageCallback plain = subscribe(handler, "sensors");
+        IMessageCallback trailing = subscribe(handler, "sensors/");
+
+        assertEquals(Collections.singletonList(plain), handler.getCallbacks("sensors"));
+        assertEquals(Collections.singletonList(trailing), handler.getCallbacks("sensors/"));
+
+        handler.unsubscribe("sensors/", trailing);
+        assertEquals(Collections.singletonList(plain), handler.getCallbacks("sensors"));
+        assertTrue(handler.getCallbacks("sensors/").isEmpty());
+    }
+
+    private static IMessageCallback subscribe(SubscriptionHandler handler, String filter) throws MqttException {
+        IMessageCallback callback = new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {}
+        };
+        handler.subscribe(filter, callback);
+        return callback;
+    }
+
+    private static Iterable<String> allTopics() {
+        Set<String> topics = new HashSet<>();
+        for (String[] values : matchingTopics.values()) {
+            topics.addAll(Arrays.asList(values));
+        }
+        for (String[] values : mismatchingTopics.values()) {
+            topics.addAll(Arrays.asList(values));
+        }
+        return topics;
+    }
 }
@@ -0,0 +1,56 @@
+package de.artcom.mqtt;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TopicCacheTest {
+    private static final List<IMessageCallback> callbacks = Collections.emptyList();
+
+    @Test
+    public void staysWithinCapacity() {
+        TopicCache cache = new TopicCache(16);
+        for (int i = 0; i < 100; i++) {
+            cache.put("topic/" + i, callbacks);
+        }
+
+        assertEquals(16, cache.size());
+    }
+
+    @Test
+    public void keepsRecentlyUsedTopics() {
+        TopicCache cache = new TopicCache(2);
+        cache.put("hot", callbacks);
+        cache.put("cold", callbacks);
+        cache.get("hot");
+        cache.put("new", callbacks);
+
+        assertNotNull(cache.get("hot"));
+        assertNull(cache.get("cold"));
+    }
+
+    @Test
+    public void disabledWithZeroCapacity() {
+        TopicCache cache = new TopicCache(0);
+        cache.put("topic", callbacks);
+
+        assertNull(cache.get("topic"));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void shrinksWhenCapacityIsReduced() {
+        TopicCache cache = new TopicCache(8);
+        for (int i = 0; i < 8; i++) {
+            cache.put("topic/" + i, callbacks);
+        }
+
+        cache.setCapacity(2);
+        assertEquals(2, cache.size());
+    }
+}
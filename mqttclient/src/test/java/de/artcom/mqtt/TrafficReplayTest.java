@@ -0,0 +1,161 @@
+package de.artcom.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class TrafficReplayTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private IMqttAsyncClient mockClient;
+    private Client client;
+    private String path;
+
+    @Before
+    public void setup() throws Exception {
+        mockClient = mock(IMqttAsyncClient.class);
+        when(mockClient.isConnected()).thenReturn(true);
+        client = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+        path = new File(folder.getRoot(), "capture.bin").getPath();
+    }
+
+    @Test
+    public void replaysReceivedMessagesThroughCallbacks() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(path, 4096);
+        client.setTrafficRecorder(recorder);
+
+        MqttMessage retained = new MqttMessage("1".getBytes());
+        retained.setQos(1);
+        retained.setRetained(true);
+        client.messageArrived("sensors/a", retained);
+        client.messageArrived("sensors/b", new MqttMessage("2".getBytes()));
+        client.publish("commands/a", "3".getBytes(), 0, false, null);
+        recorder.close();
+        assertEquals(3, recorder.getRecordCount());
+
+        TrafficReplayer replayer = new TrafficReplayer(path);
+        assertEquals(2, replayer.getReceivedCount());
+        assertEquals(1, replayer.getPublishedCount());
+
+        Client replayClient = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+        IMessageCallback all = mock(IMessageCallback.class);
+        IMessageCallback onlyA = mock(IMessageCallback.class);
+        replayClient.subscribe("sensors/+", all);
+        replayClient.subscribe("sensors/a", onlyA);
+
+        TrafficReplayer.Report report = replayer.replay(replayClient, false);
+
+        ArgumentCaptor<MqttMessage> message = ArgumentCaptor.forClass(MqttMessage.class);
+        verify(onlyA).onRawMessage(eq("sensors/a"), message.capture());
+        assertEquals("1", new String(message.getValue().getPayload()));
+        assertEquals(1, message.getValue().getQos());
+        assertTrue(message.getValue().isRetained());
+        verify(all).onRawMessage(eq("sensors/b"), any(MqttMessage.class));
+
+        assertEquals(2, report.getMessageCount());
+        assertEquals(3, report.getDeliveryCount());
+        assertEquals(2, report.getCallbackLatencies().get(all).getCount());
+        assertEquals(1, report.getCallbackLatencies().get(onlyA).getCount());
+    }
+
+    @Test
+    public void keepsOriginalTiming() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(path, 4096);
+        client.setTrafficRecorder(recorder);
+        client.messageArrived("a", new MqttMessage("1".getBytes()));
+        Thread.sleep(200);
+        client.messageArrived("a", new MqttMessage("2".getBytes()));
+        recorder.close();
+
+        client.setTrafficRecorder(null);
+        client.subscribe("a", mock(IMessageCallback.class));
+        TrafficReplayer replayer = new TrafficReplayer(path);
+
+        assertTrue(replayer.replay(client, true).getDuration(TimeUnit.MILLISECONDS) >= 200);
+        assertTrue(replayer.replay(client, false).getDuration(TimeUnit.MILLISECONDS) < 200);
+    }
+
+    @Test
+    public void bypassesRecorderAndLastValueCache() throws Exception {
+        TrafficRecorder capture = new TrafficRecorder(path, 4096);
+        client.setTrafficRecorder(capture);
+        client.messageArrived("a", new MqttMessage("old".getBytes()));
+        capture.close();
+
+        TrafficRecorder recorder = new TrafficRecorder(new File(folder.getRoot(), "live.bin").getPath(), 4096);
+        LastValueCache cache = new LastValueCache(10, 1000);
+        client.setTrafficRecorder(recorder);
+        client.setLastValueCache(cache);
+        IMessageCallback callback = mock(IMessageCallback.class);
+        client.subscribe("a", callback);
+        client.messageArrived("a", new MqttMessage("live".getBytes()));
+
+        new TrafficReplayer(path).replay(client, false);
+
+        verify(callback, times(2)).onRawMessage(eq("a"), any(MqttMessage.class));
+        assertEquals(1, recorder.getRecordCount());
+        assertEquals("live", new String(cache.matching("a").get(0).message.getPayload()));
+        recorder.close();
+    }
+
+    @Test
+    public void completesWhenDispatcherDropsDeliveries() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(path, 4096);
+        client.setTrafficRecorder(recorder);
+        for (int i = 0; i < 20; i++) {
+            client.messageArrived("a", new MqttMessage(Integer.toString(i).getBytes()));
+        }
+        recorder.close();
+
+        Dispatcher dispatcher = new Dispatcher(1, 1, Dispatcher.OverflowPolicy.DROP_OLDEST);
+        Client replayClient = new Client(mockClient, mock(ConnectionCallback.class), 2, true);
+        replayClient.setDispatcher(dispatcher);
+        replayClient.subscribe("a", new IMessageCallback() {
+            @Override
+            public void onRawMessage(String topic, MqttMessage message) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        SubscriptionOptions options = new SubscriptionOptions();
+        options.setConflate(true);
+        replayClient.subscribe("a", mock(IMessageCallback.class), options);
+
+        try {
+            TrafficReplayer.Report report = new TrafficReplayer(path).replay(replayClient, false);
+
+            assertTrue(dispatcher.getDroppedCount() > 0);
+            assertEquals(40, report.getDeliveryCount() + 2 * dispatcher.getDroppedCount());
+            assertTrue(report.getDuration(TimeUnit.MILLISECONDS) < 5000);
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void dropsRecordsBeyondCapacity() throws Exception {
+        TrafficRecorder recorder = new TrafficRecorder(path, 64);
+        client.setTrafficRecorder(recorder);
+        client.messageArrived("a", new MqttMessage(new byte[20]));
+        client.messageArrived("a", new MqttMessage(new byte[20]));
+        recorder.close();
+
+        assertEquals(1, recorder.getRecordCount());
+        assertEquals(1, recorder.getDroppedCount());
+        assertEquals(1, new TrafficReplayer(path).getReceivedCount());
+    }
+}